@@ -0,0 +1,108 @@
+package solverTypes;
+
+import ilog.cplex.IloCplex.BasisStatus;
+
+//the simplex basis of a node's LP relaxation, carried with migrated nodes so that the LP of the child
+//need not be solved from scratch after the model is imported again
+//
+//every variable ( column ) and every constraint ( row ) gets one of 4 statuses, packed 2 bits each, 
+//columns first. The callbacks cannot ask CPLEX for the basis of a node, so it is derived from the node's
+//LP solution : a variable strictly between its bounds is basic, otherwise it is at the bound it sits on,
+//and a constraint is basic if its slack is not zero. Under degeneracy this may not be an exact basis, 
+//CPLEX repairs it when it is installed.
+//
+
+public class CompressedBasis {
+
+    public static final int AT_LOWER = 0;
+    public static final int BASIC = 1;
+    public static final int AT_UPPER = 2;
+    public static final int FREE_OR_SUPERBASIC = 3;
+
+    //how close to a bound a value must be, to be considered at the bound
+    private static final double TOLERANCE = 1e-6;
+
+    private static final int STATUSES_PER_BYTE = 4;
+
+    private int columnCount;
+    private int rowCount;
+    private byte[] packedStatuses;
+
+    public CompressedBasis (int columnCount, int rowCount, byte[] packedStatuses) {
+        this.columnCount = columnCount;
+        this.rowCount = rowCount;
+        this.packedStatuses = packedStatuses;
+    }
+
+    //the basis of a node, from its LP solution as seen in a callback
+    public static CompressedBasis fromNodeLP (double[] values, double[] lowerBounds, double[] upperBounds, 
+            double[] slacks) {
+
+        CompressedBasis basis = new CompressedBasis(values.length, slacks.length, 
+                new byte[getPackedLength(values.length + slacks.length)]);
+
+        for (int index = 0; index < values.length; index ++) {
+            int status = BASIC;
+            if (values[index] <= lowerBounds[index] + TOLERANCE) {
+                status = AT_LOWER;
+            } else if (values[index] >= upperBounds[index] - TOLERANCE) {
+                status = AT_UPPER;
+            }
+            basis.setStatus(index, status);
+        }
+        for (int index = 0; index < slacks.length; index ++) {
+            basis.setStatus(values.length + index, Math.abs(slacks[index]) > TOLERANCE ? BASIC : AT_LOWER);
+        }
+
+        return basis;
+    }
+
+    public static int getPackedLength (int statusCount) {
+        return (statusCount + STATUSES_PER_BYTE - 1) / STATUSES_PER_BYTE;
+    }
+
+    public int getColumnCount () {
+        return columnCount;
+    }
+
+    public int getRowCount () {
+        return rowCount;
+    }
+
+    public byte[] getPackedStatuses () {
+        return packedStatuses;
+    }
+
+    public BasisStatus[] getColumnStatuses () {
+        return toBasisStatuses(0, columnCount);
+    }
+
+    public BasisStatus[] getRowStatuses () {
+        return toBasisStatuses(columnCount, rowCount);
+    }
+
+    private BasisStatus[] toBasisStatuses (int first, int count) {
+        BasisStatus[] statuses = new BasisStatus[count];
+        for (int index = 0; index < count; index ++) {
+            switch (getStatus(first + index)) {
+            case BASIC : statuses[index] = BasisStatus.Basic; break;
+            case AT_UPPER : statuses[index] = BasisStatus.AtUpper; break;
+            case FREE_OR_SUPERBASIC : statuses[index] = BasisStatus.FreeOrSuperbasic; break;
+            default : statuses[index] = BasisStatus.AtLower;
+            }
+        }
+        return statuses;
+    }
+
+    private int getStatus (int position) {
+        int shift = 2 * (position % STATUSES_PER_BYTE);
+        return (packedStatuses[position / STATUSES_PER_BYTE] >> shift) & 3;
+    }
+
+    private void setStatus (int position, int status) {
+        int shift = 2 * (position % STATUSES_PER_BYTE);
+        int index = position / STATUSES_PER_BYTE;
+        packedStatuses[index] = (byte) ((packedStatuses[index] & ~(3 << shift)) | (status << shift));
+    }
+
+}
@@ -3,10 +3,8 @@ package solverTypes;
 import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex.BranchDirection;
 
-import java.util.Collections;
-import java.util.Hashtable; 
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.google.gson.Gson;
 
@@ -31,10 +29,20 @@ public class NodeAttachment {
 
     //every time there is a branching on a variable, we update on of these lists with the
     //new bound corresponding to the branching condition
-    private Map< String, Double > upperBounds ;
-    private Map< String, Double > lowerBounds ;
+    //
+    //variables are identified by their index in the VariableDictionary of the model
+    //
+    //if this node has a parent, these lists only hold the bounds added at this node, and the
+    //full bounds are the parent's bounds merged with ours. The chain is flattened before the
+    //node is written out for migration.
+    private SparseBounds upperBounds ;
+    private SparseBounds lowerBounds ;
+    private transient NodeAttachment parent;
     
     private double parentsLPRelaxOptValue;
+
+    //the LP basis of the parent, set only on nodes farmed out for migration, may be null
+    private CompressedBasis parentBasis;
     
     public double getParentLPRElaxOptimumValue(){
         return parentsLPRelaxOptValue ;
@@ -44,10 +52,18 @@ public class NodeAttachment {
         parentsLPRelaxOptValue=val ;
     }
 
+    public CompressedBasis getParentBasis(){
+        return parentBasis;
+    }
+
+    public void setParentBasis(CompressedBasis basis){
+        parentBasis = basis;
+    }
+
     public NodeAttachment (int depth, double parentsLPRelaxOptValue /*, String myID, String pid*/) {
 
-        upperBounds = new Hashtable<   String, Double>();
-        lowerBounds = new Hashtable<   String, Double>();
+        upperBounds = new SparseBounds(true);
+        lowerBounds = new SparseBounds(false);
 
         this.depth = depth;
         this.parentsLPRelaxOptValue = parentsLPRelaxOptValue;
@@ -62,6 +78,7 @@ public class NodeAttachment {
     }
 
     public String toJSONString(){
+        flatten();
         return(new Gson()).toJson(this);
     }
 
@@ -81,71 +98,73 @@ public class NodeAttachment {
 	}	
      */
 
-    public Map< String, Double >   getUpperBounds   () {
-        return Collections.unmodifiableMap(upperBounds);
+    //full bounds of this node
+    public SparseBounds getUpperBounds   () {
+        flatten();
+        return upperBounds;
     }
 
-    public Map< String, Double >   getLowerBounds   () {
-        return Collections.unmodifiableMap(lowerBounds);
+    public SparseBounds getLowerBounds   () {
+        flatten();
+        return lowerBounds;
     }
 
-    //clone this object , and apply new bounds
-    //use this method to create node data for a child node
+    //replace the chain of parents with the full bounds
+    //children of this node are not affected, since our full bounds do not change
+    public void flatten () {
+        if (parent == null) return;
+
+        //the bounds added along the chain, up to the nearest node which is already flat
+        List<NodeAttachment> chain = new ArrayList<NodeAttachment>();
+        NodeAttachment ancestor = this;
+        while (ancestor.parent != null) {
+            chain.add(ancestor);
+            ancestor = ancestor.parent;
+        }
+        SparseBounds addedUpperBounds = new SparseBounds(true);
+        SparseBounds addedLowerBounds = new SparseBounds(false);
+        for (NodeAttachment node : chain) {
+            for (int position = 0; position < node.upperBounds.size(); position ++) {
+                addedUpperBounds.merge(node.upperBounds.getIndex(position), node.upperBounds.getValue(position));
+            }
+            for (int position = 0; position < node.lowerBounds.size(); position ++) {
+                addedLowerBounds.merge(node.lowerBounds.getIndex(position), node.lowerBounds.getValue(position));
+            }
+        }
+
+        //one linear merge with the flat ancestor
+        SparseBounds fullUpperBounds = new SparseBounds(ancestor.upperBounds);
+        SparseBounds fullLowerBounds = new SparseBounds(ancestor.lowerBounds);
+        fullUpperBounds.mergeAll(addedUpperBounds);
+        fullLowerBounds.mergeAll(addedLowerBounds);
+
+        upperBounds = fullUpperBounds;
+        lowerBounds = fullLowerBounds;
+        parent = null;
+    }
+
+    //create node data for a child node, which shares our bounds and holds only the new ones
     public NodeAttachment createChildNode (BranchDirection[ ] directionArray, 
-            double[ ] boundArray, IloNumVar[] varArray, int childNum, double parentsLPRelaxObjValue) {
+            double[ ] boundArray, IloNumVar[] varArray, VariableDictionary dictionary, double parentsLPRelaxObjValue) {
 
         //depth of child is 1 more than parent
         NodeAttachment child = new NodeAttachment(depth +1 ,parentsLPRelaxObjValue );
 
-        //copy parents bounds
-        for (Entry <String, Double> entry : upperBounds.entrySet()){
-            child.mergeBound(entry.getKey(), entry.getValue(), true);
-        }
-        for (Entry <String, Double> entry : lowerBounds.entrySet()){
-            child.mergeBound(entry.getKey(), entry.getValue(), false);
-        }
+        //share parents bounds
+        child.parent = this;
 
         //now apply the new bounds to the existing bounds
         for (int index = 0 ; index < varArray.length; index ++) {							
-            child.mergeBound(varArray[index].getName(), boundArray[index] , 
+            child.mergeBound(dictionary.indexOf(varArray[index].getName()), boundArray[index] , 
                     directionArray[index].equals(BranchDirection.Down));
         }
 
         return child;
     }
 
-    //merge this bound into existing bounds, return true if added or merged, false if no effect
-    private boolean mergeBound(String varName, double value, boolean isUpperBound) {
-        boolean isMerged = false;
-
-        //the following logic is written in a verbose manner for easy understanding
-        if (isUpperBound){
-            if (upperBounds.containsKey(varName)) {
-                if (value < upperBounds.get(varName)){
-                    //update the more restrictive upper bound
-                    upperBounds.put(varName, value);
-                    isMerged = true;
-                }
-            }else {
-                //add the bound
-                upperBounds.put(varName, value);
-                isMerged = true;
-            }
-        } else {
-            if (lowerBounds.containsKey(varName)) {
-                if (value > lowerBounds.get(varName)){
-                    //update the more restrictive lower bound
-                    lowerBounds.put(varName, value);
-                    isMerged = true;
-                }				
-            }else {
-                //add the bound
-                lowerBounds.put(varName, value);
-                isMerged = true;
-            }
-        }
-
-        return isMerged;
+    //merge this bound into the bounds held at this node, return true if added or merged, false if no effect
+    public boolean mergeBound(int varIndex, double value, boolean isUpperBound) {
+        return isUpperBound ? upperBounds.merge(varIndex, value) : lowerBounds.merge(varIndex, value);
     }
 
 }
@@ -0,0 +1,209 @@
+package solverTypes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+//compact binary format for a NodeAttachment, used when migrating nodes instead of JSON
+//
+//layout, version 2 :
+//   version byte
+//   depth                               varint
+//   parent's LP relaxation value        8 byte double
+//   number of upper bounds, then bounds varint, bound list
+//   number of lower bounds, then bounds varint, bound list
+//   1 if the parent's basis follows      byte
+//   columns, rows, packed statuses      varint, varint, bytes   ( see CompressedBasis )
+//
+//version 1 is the same without the basis, and can still be read
+//
+//variables are written as their index in the VariableDictionary, in ascending order, and each index is
+//written as the gap from the previous one. Branching bounds are almost always integral, so an integral
+//bound is written as a zig-zag varint ; any other bound is written as a raw 8 byte double.
+//
+
+public class NodeAttachmentCodec {
+
+    public static final byte VERSION = 2;
+
+    //integral bounds larger than this are written as raw doubles
+    private static final double MAX_INTEGRAL_BOUND = 1e15;
+
+    public static byte[] encode (NodeAttachment node, VariableDictionary dictionary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(node, dictionary, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public static NodeAttachment decode (byte[] bytes, VariableDictionary dictionary) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)), dictionary);
+    }
+
+    public static void write (NodeAttachment node, VariableDictionary dictionary, DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        writeVarLong(out, node.getDepth());
+        out.writeDouble(node.getParentLPRElaxOptimumValue());
+        writeBounds(out, node.getUpperBounds(), dictionary);
+        writeBounds(out, node.getLowerBounds(), dictionary);
+        writeBasis(out, node.getParentBasis());
+    }
+
+    public static NodeAttachment read (DataInput in, VariableDictionary dictionary) throws IOException {
+
+        byte version = readVersion(in);
+
+        int depth = (int) readVarLong(in);
+        double parentsLPRelaxOptValue = in.readDouble();
+        NodeAttachment node = new NodeAttachment(depth, parentsLPRelaxOptValue);
+
+        readBounds(in, node, dictionary, true);
+        readBounds(in, node, dictionary, false);
+        if (version > 1) {
+            node.setParentBasis(readBasis(in));
+        }
+
+        return node;
+    }
+
+    //the parent's LP relaxation value of an encoded node, without decoding the bounds
+    //this does not need the VariableDictionary, so it can be used where the model is not available
+    public static double readParentLPRelaxValue (byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        readVersion(in);
+        readVarLong(in);
+        return in.readDouble();
+    }
+
+    //the number of branching bounds, upper and lower, of an encoded node, without the VariableDictionary
+    public static int readBoundCount (byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        readVersion(in);
+        readVarLong(in);
+        in.readDouble();
+        int upperCount = skipBounds(in);
+        return upperCount + skipBounds(in);
+    }
+
+    private static byte readVersion (DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported node attachment format version " + version);
+        }
+        return version;
+    }
+
+    private static void writeBasis (DataOutput out, CompressedBasis basis) throws IOException {
+        if (basis == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        writeVarLong(out, basis.getColumnCount());
+        writeVarLong(out, basis.getRowCount());
+        out.write(basis.getPackedStatuses());
+    }
+
+    private static CompressedBasis readBasis (DataInput in) throws IOException {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        int columnCount = (int) readVarLong(in);
+        int rowCount = (int) readVarLong(in);
+        byte[] packedStatuses = new byte[CompressedBasis.getPackedLength(columnCount + rowCount)];
+        in.readFully(packedStatuses);
+        return new CompressedBasis(columnCount, rowCount, packedStatuses);
+    }
+
+    private static void writeBounds (DataOutput out, SparseBounds bounds, VariableDictionary dictionary)
+            throws IOException {
+
+        writeVarLong(out, bounds.size());
+
+        //bounds are already sorted by variable index
+        int previousIndex = 0;
+        for (int position = 0; position < bounds.size(); position ++){
+            int index = bounds.getIndex(position);
+            if (index >= dictionary.size()) {
+                throw new IOException("Variable index " + index + " is not in the model");
+            }
+            int gap = index - previousIndex;
+            previousIndex = index;
+
+            double value = bounds.getValue(position);
+            boolean isIntegral = Math.abs(value) < MAX_INTEGRAL_BOUND && value == Math.rint(value);
+
+            writeVarLong(out, (((long) gap) << 1) | (isIntegral ? 1 : 0));
+            if (isIntegral) {
+                writeVarLong(out, zigZag((long) value));
+            } else {
+                out.writeDouble(value);
+            }
+        }
+    }
+
+    private static void readBounds (DataInput in, NodeAttachment node, VariableDictionary dictionary, boolean isUpperBound)
+            throws IOException {
+
+        int count = (int) readVarLong(in);
+        int index = 0;
+        for (int position = 0; position < count; position ++){
+            long header = readVarLong(in);
+            index += (int) (header >>> 1);
+            if (index >= dictionary.size()) {
+                throw new IOException("Variable index " + index + " is not in the model");
+            }
+
+            double value = (header & 1) == 1 ? unZigZag(readVarLong(in)) : in.readDouble();
+            node.mergeBound(index, value, isUpperBound);
+        }
+    }
+
+    //read past a bound list, returning its length
+    private static int skipBounds (DataInput in) throws IOException {
+        int count = (int) readVarLong(in);
+        for (int position = 0; position < count; position ++){
+            if ((readVarLong(in) & 1) == 1) {
+                readVarLong(in);
+            } else {
+                in.readDouble();
+            }
+        }
+        return count;
+    }
+
+    private static long zigZag (long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag (long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    //unsigned varint, 7 bits per byte, low order group first
+    static void writeVarLong (DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong (DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= ((long) (b & 0x7F)) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}
@@ -0,0 +1,142 @@
+package solverTypes;
+
+import java.util.Arrays;
+
+//the upper bounds, or the lower bounds, of a node
+//
+//variables are identified by their index in the VariableDictionary. Indices are kept sorted, so that a
+//lookup is a binary search. Nothing is boxed.
+//
+
+public class SparseBounds {
+
+    private static final int[] NO_INDICES = new int[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    private final boolean isUpperBound;
+
+    //only the first size entries are in use
+    private int[] indices ;
+    private double[] values ;
+    private int size;
+
+    public SparseBounds (boolean isUpperBound) {
+        this.isUpperBound = isUpperBound;
+        indices = NO_INDICES;
+        values = NO_VALUES;
+    }
+
+    //copy, with a little room for the branching bounds that are about to be merged in
+    public SparseBounds (SparseBounds other) {
+        isUpperBound = other.isUpperBound;
+        size = other.size;
+        indices = Arrays.copyOf(other.indices, size + 2);
+        values = Arrays.copyOf(other.values, size + 2);
+    }
+
+    public boolean isUpperBound() {
+        return isUpperBound;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //the variable index of the n-th bound, in ascending order of variable index
+    public int getIndex(int position) {
+        return indices[position];
+    }
+
+    public double getValue(int position) {
+        return values[position];
+    }
+
+    public boolean contains(int index) {
+        return Arrays.binarySearch(indices, 0, size, index) >= 0;
+    }
+
+    //the bound on this variable, or missingValue if there is none
+    public double get(int index, double missingValue) {
+        int position = Arrays.binarySearch(indices, 0, size, index);
+        return position >= 0 ? values[position] : missingValue;
+    }
+
+    //merge this bound into existing bounds, return true if added or merged, false if no effect
+    public boolean merge(int index, double value) {
+        boolean isMerged = false;
+
+        int position = Arrays.binarySearch(indices, 0, size, index);
+        if (position >= 0) {
+            if (isTighter(value, values[position])) {
+                //update the more restrictive bound
+                values[position] = value;
+                isMerged = true;
+            }
+        } else {
+            //add the bound
+            insert(-position - 1, index, value);
+            isMerged = true;
+        }
+
+        return isMerged;
+    }
+
+    //merge every bound in other into this, in one pass over both sorted lists
+    public void mergeAll(SparseBounds other) {
+
+        int[] mergedIndices = new int[size + other.size];
+        double[] mergedValues = new double[size + other.size];
+        int mine = 0, theirs = 0, merged = 0;
+
+        while (mine < size || theirs < other.size) {
+            if (theirs == other.size || (mine < size && indices[mine] < other.indices[theirs])) {
+                mergedIndices[merged] = indices[mine];
+                mergedValues[merged++] = values[mine++];
+            } else if (mine == size || other.indices[theirs] < indices[mine]) {
+                mergedIndices[merged] = other.indices[theirs];
+                mergedValues[merged++] = other.values[theirs++];
+            } else {
+                mergedIndices[merged] = indices[mine];
+                mergedValues[merged++] = isTighter(other.values[theirs], values[mine]) ? other.values[theirs] : values[mine];
+                mine ++;
+                theirs ++;
+            }
+        }
+
+        indices = mergedIndices;
+        values = mergedValues;
+        size = merged;
+    }
+
+    private boolean isTighter(double value, double existing) {
+        return isUpperBound ? value < existing : value > existing;
+    }
+
+    private void insert(int position, int index, double value) {
+        if (size == indices.length) {
+            int capacity = Math.max(4, 2*size);
+            indices = Arrays.copyOf(indices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(indices, position, indices, position + 1, size - position);
+        System.arraycopy(values, position, values, position + 1, size - position);
+        indices[position] = index;
+        values[position] = value;
+        size ++;
+    }
+
+    public boolean equals(Object other) {
+        if (!(other instanceof SparseBounds)) {
+            return false;
+        }
+        SparseBounds that = (SparseBounds) other;
+        return isUpperBound == that.isUpperBound && size == that.size &&
+               Arrays.equals(Arrays.copyOf(indices, size), Arrays.copyOf(that.indices, size)) &&
+               Arrays.equals(Arrays.copyOf(values, size), Arrays.copyOf(that.values, size));
+    }
+
+    public int hashCode() {
+        return 31*Arrays.hashCode(Arrays.copyOf(indices, size)) + size;
+    }
+
+}
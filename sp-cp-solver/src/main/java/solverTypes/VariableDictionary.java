@@ -0,0 +1,66 @@
+package solverTypes;
+
+import ilog.concert.IloException;
+import ilog.concert.IloLPMatrix;
+import ilog.concert.IloNumVar;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//maps the variable names of a model to dense ints, and back
+//
+//the index of a variable is its position in the LP matrix of the imported model. Every machine
+//imports the same model file, so every machine builds the same dictionary, and a variable index
+//written by one mapper can be read back by any other mapper.
+//
+
+public class VariableDictionary {
+
+    //one dictionary per model file, shared by every solver in this JVM
+    private static final Map<String, VariableDictionary> dictionaries = new HashMap<String, VariableDictionary>();
+
+    private final String[] names;
+    private final Map<String, Integer> indices;
+
+    public VariableDictionary (String[] names) {
+        this.names = names;
+        indices = new HashMap<String, Integer>(2*names.length);
+        for (int index = 0; index < names.length; index ++){
+            indices.put(names[index], index);
+        }
+    }
+
+    //WARNING : we assume that every variable appears in at least 1 constraint or variable bound
+    public static VariableDictionary fromLPMatrix (IloLPMatrix lpMatrix) throws IloException {
+        IloNumVar[] variables = lpMatrix.getNumVars();
+        String[] names = new String[variables.length];
+        for (int index = 0; index < variables.length; index ++){
+            names[index] = variables[index].getName();
+        }
+        return new VariableDictionary(names);
+    }
+
+    public static synchronized VariableDictionary getInstance (String modelFilename, IloLPMatrix lpMatrix) throws IloException {
+        VariableDictionary dictionary = dictionaries.get(modelFilename);
+        if (dictionary == null) {
+            dictionary = fromLPMatrix(lpMatrix);
+            dictionaries.put(modelFilename, dictionary);
+        }
+        return dictionary;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    //return -1 if this variable is not in the model
+    public int indexOf (String varName) {
+        Integer index = indices.get(varName);
+        return index == null ? -1 : index;
+    }
+
+    public String nameOf (int index) {
+        return names[index];
+    }
+
+}
@@ -2,27 +2,42 @@ package solvers;
 
 import java.util.ArrayList; 
 import java.util.List; 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.log4j.Logger;
 
+import solverTypes.CompressedBasis;
 import solverTypes.NodeAttachment;
+import solverTypes.Solution;
+import solverTypes.VariableDictionary;
 import ilog.concert.IloException;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 import ilog.cplex.IloCplex.BranchDirection;
 
+//CPLEX may call the handler from several threads at once, see CPSolver.setThreads
+//so the counters are LongAdders, and every thread collects the nodes it farms out in its own list
 public class BranchHandler extends IloCplex.BranchCallback{
 
     //this is the  variable bounds list that is accumulated down the solution tree
     private NodeAttachment nodeAttachment; 
 
     //add child count for debugging purposes 
-    private static int childcount ;
+    private final LongAdder childcount = new LongAdder();
     
     //max kids per node
     private final int MAX_KIDS = 2; 
 
-    //here is the list of new nodes the handler will return, when we farm out nodes
-    private  List<NodeAttachment> newNodeList;
+    //here are the lists of new nodes the handler will return, when we farm out nodes, one per CPLEX thread
+    private final ConcurrentLinkedQueue<List<NodeAttachment>> newNodeLists = new ConcurrentLinkedQueue<List<NodeAttachment>>();
+    private final ThreadLocal<List<NodeAttachment>> newNodeList = new ThreadLocal<List<NodeAttachment>>() {
+        protected List<NodeAttachment> initialValue() {
+            List<NodeAttachment> list = new ArrayList<NodeAttachment>();
+            newNodeLists.add(list);
+            return list;
+        }
+    };
 
     private static Logger logger=Logger.getLogger(BranchHandler.class);
 
@@ -30,29 +45,46 @@ public class BranchHandler extends IloCplex.BranchCallback{
     private int timeSlice  ; //seconds
     
     private boolean isMaximization;
-    private double bestKnownOptimum;
-    
-    static int notFarmWorthy =0;
+    private volatile double bestKnownOptimum;
 
-    static   {
-        childcount=0;
-    }
+    //shares incumbents with the other solvers, may be null
+    private IncumbentService incumbentService;
+    //the last incumbent of this solve we published
+    private double publishedIncumbent;
+
+    //used to find the index of a branching variable
+    private VariableDictionary dictionary;
+
+    //the variables and constraints of the model, if farmed out nodes are to carry their parent's LP basis
+    private IloNumVar[] basisVariables;
+    private IloRange[] basisRanges;
+    
+    private final LongAdder notFarmWorthy = new LongAdder();
 
-    public BranchHandler( NodeAttachment attachment, boolean isMax  ){
-        newNodeList = new ArrayList<NodeAttachment>();
+    public BranchHandler( NodeAttachment attachment, boolean isMax, VariableDictionary dictionary  ){
         this.nodeAttachment = attachment;		 
 
         startTime = java.lang.System.currentTimeMillis();
         isMaximization= isMax;
+        this.dictionary = dictionary;
     }	
 
+    //the nodes farmed out by all the threads, to be called once the solve is over
     public List<NodeAttachment> getNewNodeList () {
-        //return read only copy ?
-        return newNodeList;
+        List<NodeAttachment> allNodes = new ArrayList<NodeAttachment>();
+        for (List<NodeAttachment> list : newNodeLists) {
+            allNodes.addAll(list);
+        }
+        return allNodes;
     }	
 
+    //farm out nodes from the calling CPLEX thread
+    void addNewNodes (List<NodeAttachment> nodes) {
+        newNodeList.get().addAll(nodes);
+    }
+
     public int getChildCount () {
-        return childcount;
+        return childcount.intValue();
     }
   
     public void setTimeSlice (int timeSlice) {
@@ -61,6 +93,15 @@ public class BranchHandler extends IloCplex.BranchCallback{
     public void setBestKnownOptimum (double bestKnownOptimum) {
         this.bestKnownOptimum= bestKnownOptimum;
     }
+    //record the LP basis of a node in the children we farm out, see CompressedBasis
+    public void setBasisCapture (IloNumVar[] variables, IloRange[] ranges) {
+        basisVariables = variables;
+        basisRanges = ranges;
+    }
+    public void setIncumbentService (IncumbentService incumbentService) {
+        this.incumbentService= incumbentService;
+        publishedIncumbent = isMaximization ? Solution.DOUBLE_MIN : Solution.DOUBLE_MAX;
+    }
 
     protected void main() throws IloException  {    
         
@@ -69,7 +110,7 @@ public class BranchHandler extends IloCplex.BranchCallback{
             //about to branch   
             
             //increment child count, useful for debug prints
-            childcount +=getNbranches() ;
+            childcount.add(getNbranches()) ;
             
             
             //process this node branching
@@ -91,18 +132,29 @@ public class BranchHandler extends IloCplex.BranchCallback{
                     setNodeData(nodeAttachment);
                 };               
 
+                //checked once, so that the kids are either all farmed out or all kept, even if the time slice runs out meanwhile
+                boolean isHalting = haltingCondition();
+
+                //the LP basis of this node, shared by both kids if they are farmed out
+                CompressedBasis basis = null;
+                if (basisVariables != null && isHalting) {
+                    basis = CompressedBasis.fromNodeLP(getValues(basisVariables), getLBs(basisVariables), 
+                            getUBs(basisVariables), getSlacks(basisRanges));
+                }
+
                 //now get both kids 
                 for (int childNum = 0 ;childNum<getNbranches();  childNum++) {                      
                    
                     //apply the bound changes specific to this child
                     NodeAttachment thisChildData = ((NodeAttachment) getNodeData()).createChildNode(
-                            dirs[childNum], bounds[childNum], vars[childNum], childNum, getObjValue() );       
+                            dirs[childNum], bounds[childNum], vars[childNum], dictionary, getObjValue() );       
 
                     //prepare to return this node, so we can emit it to disk
-                    if (haltingCondition() ) {
+                    if (isHalting) {
                         
                         //collect the child
-                        newNodeList.add(thisChildData);
+                        thisChildData.setParentBasis(basis);
+                        newNodeList.get().add(thisChildData);
                         
                     } else {
                         //   simply attach node data and continue
@@ -111,7 +163,7 @@ public class BranchHandler extends IloCplex.BranchCallback{
 
                 }
                 
-                if (haltingCondition() ) {
+                if (isHalting) {
                     //prune this node, we have collected its children
                     prune();
                 }
@@ -119,8 +171,8 @@ public class BranchHandler extends IloCplex.BranchCallback{
             } else {
                 //prune this node, no point solving it or its children
                 prune();
-                notFarmWorthy ++;
-                logger.debug("number of nodes not FarmWorthy = " + notFarmWorthy); 
+                notFarmWorthy.increment();
+                logger.debug("number of nodes not FarmWorthy = " + notFarmWorthy.sum()); 
                 
             } //end if else farm worthy
        
@@ -128,6 +180,11 @@ public class BranchHandler extends IloCplex.BranchCallback{
      
     }//end method main
         
+    //whether the time slice is over, without logging, see NodeHandler
+    boolean isTimeSliceOver () {
+        return timeSlice*1000 < (java.lang.System.currentTimeMillis()-startTime);
+    }
+
     //Use a simple halt condition for now
     //should be user configurable
     private boolean haltingCondition (  ) throws IloException {
@@ -153,8 +210,28 @@ public class BranchHandler extends IloCplex.BranchCallback{
     }
 
     private boolean isFarmWorthy(  ) throws IloException{
+        shareIncumbent();
         return (getObjValue()>bestKnownOptimum && isMaximization) ||
                (getObjValue()<bestKnownOptimum && !isMaximization) ;
     }
 
+    //publish our own incumbent if it improved, and prune against the best incumbent of all the solvers
+    //synchronized, so that 2 threads do not publish the same incumbent
+    private synchronized void shareIncumbent() throws IloException {
+        if (incumbentService == null) return;
+
+        if (hasIncumbent()) {
+            double incumbent = getIncumbentObjValue();
+            if (isMaximization ? incumbent > publishedIncumbent : incumbent < publishedIncumbent) {
+                incumbentService.publish(incumbent);
+                publishedIncumbent = incumbent;
+            }
+        }
+
+        double globalOptimum = incumbentService.getBestKnownOptimum();
+        if (isMaximization ? globalOptimum > bestKnownOptimum : globalOptimum < bestKnownOptimum) {
+            bestKnownOptimum = globalOptimum;
+        }
+    }
+
 }
@@ -3,15 +3,20 @@ package solvers;
 import ilog.concert.IloException;
 import ilog.concert.IloLPMatrix;
 import ilog.concert.IloNumVar; 
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;  
 import org.apache.log4j.Logger;
 
-import solverTypes.NodeAttachment; 
+import solverTypes.CompressedBasis;
+import solverTypes.NodeAttachment;
+import solverTypes.NodeAttachmentCodec;
 import solverTypes.Solution;
+import solverTypes.SparseBounds;
+import solverTypes.VariableDictionary;
 
 public class CPSolver {
 
@@ -19,18 +24,60 @@ public class CPSolver {
 
     private  IloCplex cplex ;
     private  BranchHandler branchHandler;
-    private boolean isMaximization = true; 
+    //farms out the open nodes as they are when the time slice is over, may be null
+    private  NodeHandler nodeHandler;
+    private boolean isMaximization = true;
+
+    //the model, and the node whose bounds we applied to it
+    //the IloCplex goes back to the ModelCache when we are done with it
+    private String filename;
+    private NodeAttachment node;
+
+    //variable names to indices, used to encode and decode migrated nodes
+    private VariableDictionary dictionary;
+
+    //shares incumbents with solvers elsewhere in the cluster, may be null
+    private IncumbentService incumbentService;
+
+    //the best solution known before this solve, given to CPLEX as a MIP start, may be null
+    private Solution mipStart;
+
+    //simplex iterations of the last solve
+    private long simplexIterations;
+
+    //CPLEX threads of this solve, 1 unless set with setThreads
+    private int threads = 1;
+
+    //whether farmed out nodes carry the LP basis of their parent, see setCarryBasis
+    private boolean carryBasis = false;
 
     //file is the original problem, attachment node is the
     // delta from the original that leads to this node
-    public CPSolver(String filename, NodeAttachment node , boolean isMax ){	
-        
+    public CPSolver(String filename, NodeAttachment node , boolean isMax ){
+        this(filename, node, null, isMax);
+    }
+
+    //interior node in the binary format written by NodeAttachmentCodec
+    //the node can only be decoded once the model is imported, since we need the variable dictionary
+    public static CPSolver fromEncodedNode(String filename, byte[] encodedNode, boolean isMax ){
+        return new CPSolver(filename, null, encodedNode, isMax);
+    }
+
+    private CPSolver(String filename, NodeAttachment node , byte[] encodedNode, boolean isMax ){
+
         isMaximization= isMax;
+        this.filename = filename;
 
         try {
             //setup the problem, start with root node representation
-            cplex = new IloCplex();						
-            cplex.importModel(filename);
+            //the model is only imported if the cache has no IloCplex to spare
+            cplex = ModelCache.checkout(filename);
+            //the dictionary is built once per model, and shared by every solver in this JVM
+            dictionary = ModelCache.getVariableDictionary(filename);
+
+            if (encodedNode!=null){
+                node = NodeAttachmentCodec.decode(encodedNode, dictionary);
+            }
 
             cplex.setParam(IloCplex.Param.MIP.Strategy.Search, IloCplex.MIPSearch.Traditional);
             
@@ -46,18 +93,103 @@ public class CPSolver {
                 //interior node
                 //apply branch conditions to arrive at representation of interior node
                 convertToInteriorNode(node );               
+                //start the LP of the node from its parent's basis, if the node carries one
+                installBasis(node.getParentBasis());
             } else {
                 //original problem, start with an empty attachment                
                 node  = new NodeAttachment(0, isMaximization?  Solution.DOUBLE_MAX: Solution.DOUBLE_MIN);                  
             }
+            this.node = node;
 
             //setup the handler	
-            branchHandler= new BranchHandler(   node , isMaximization );
+            branchHandler= new BranchHandler(   node , isMaximization, dictionary );
             cplex.use(branchHandler);  
+            //the IloCplex may come from a solver which used more threads
+            setThreads(1);
+            setDrainOnHalt(true);
+
+        } catch (IloException ex) {
+            logger.error(ex);
+        } catch (IOException ex) {
+            logger.error(ex);
+        }
+    }
+
+    public VariableDictionary getVariableDictionary(){
+        return dictionary;
+    }
+
+    //publish our incumbents to, and prune against the incumbents of, the other solvers
+    public void setIncumbentService(IncumbentService incumbentService){
+        this.incumbentService = incumbentService;
+        if (branchHandler != null) {
+            branchHandler.setIncumbentService(incumbentService);
+        }
+    }
+
+    //let CPLEX search the tree with several threads, the handlers are thread safe
+    //the search is opportunistic, the nodes farmed out depend on the clock anyway
+    //the open nodes cannot be drained with more than 1 thread, see NodeHandler
+    public void setThreads(int threads){
+        if (branchHandler == null) return;
+        this.threads = Math.max(1, threads);
+        try {
+            cplex.setParam(IloCplex.Param.Threads, this.threads);
+            cplex.setParam(IloCplex.Param.ParallelMode, 
+                    this.threads > 1 ? IloCplex.ParallelMode.Opportunistic : IloCplex.ParallelMode.Auto);
+        } catch (IloException ex) {
+            logger.error(ex);
+        }
+        if (this.threads > 1) setDrainOnHalt(false);
+    }
+
+    //when the time slice is over, farm out the open nodes without solving them, and stop at once
+    //otherwise every open node is solved once more, and its children are farmed out
+    //drained nodes have no basis, so there is no drain if nodes carry their parent's basis
+    public void setDrainOnHalt(boolean drainOnHalt){
+        if (branchHandler == null) return;
+        if (drainOnHalt && (threads > 1 || carryBasis)) {
+            logger.debug("open nodes are not drained with " + threads + " threads" + 
+                    (carryBasis ? " and the basis carried" : ""));
+            return;
+        }
+        try {
+            if (drainOnHalt && nodeHandler == null) {
+                nodeHandler = new NodeHandler(branchHandler);
+                cplex.use(nodeHandler);
+            } else if (!drainOnHalt && nodeHandler != null) {
+                //clearing the callbacks is the only way to remove one
+                cplex.clearCallbacks();
+                cplex.use(branchHandler);
+                nodeHandler = null;
+            }
+        } catch (IloException ex) {
+            logger.error(ex);
+        }
+    }
+
+    //farm out nodes with the LP basis of their parent, which makes them bigger but quicker to start
+    //the basis is only known for the node being branched, so this turns the drain of open nodes off
+    public void setCarryBasis(boolean carryBasis){
+        if (!carryBasis || branchHandler == null) return;
+        try {
+            branchHandler.setBasisCapture(ModelCache.getVariables(cplex), ModelCache.getRanges(cplex));
+            this.carryBasis = true;
+        } catch (IloException ex) {
+            logger.error(ex);
+        }
+        setDrainOnHalt(false);
+    }
+
+    //simplex iterations of the last solve, including those of the LP relaxation of the node
+    public long getSimplexIterations(){
+        return simplexIterations;
+    }
 
-        } catch (IloException ex) {			
-            logger.error(ex); 
-        }         
+    //start the search from a known solution, usually the global incumbent
+    //it need not satisfy the bounds of our node, CPLEX repairs it, and it is ignored unless feasible
+    public void setMipStart(Solution incumbent){
+        mipStart = incumbent != null && incumbent.getIsFeasibleOrOptimal() ? incumbent : null;
     }
 
     /**
@@ -80,55 +212,89 @@ public class CPSolver {
         //define an empty, invalid solution variable
         Solution soln = new Solution(isMaximization );	
         
+        //the incumbent of another solver may be better than what our caller knows
+        if (incumbentService != null) {
+            double globalOptimum = incumbentService.getBestKnownOptimum();
+            if (isMaximization ? globalOptimum > bestKnownOptimum : globalOptimum < bestKnownOptimum) {
+                bestKnownOptimum = globalOptimum;
+            }
+        }
+
         //inform the branch handler of the best known optimum and time slice
         //these are used to determine the halting condition and pruning policy
         branchHandler.setTimeSlice( timeSliceInSeconds);
         branchHandler.setBestKnownOptimum( bestKnownOptimum);
 
-        if ( cplex.solve() ) {
+        //the model goes back to the cache even if CPLEX fails, so that a retry does not leak it
+        try {
+            //let CPLEX prune against it too, the cutoff is put back when the model is released
+            if (Math.abs(bestKnownOptimum) < Solution.DOUBLE_MAX) {
+                cplex.setParam(isMaximization ? IloCplex.Param.MIP.Tolerances.LowerCutoff : 
+                    IloCplex.Param.MIP.Tolerances.UpperCutoff, bestKnownOptimum);
+            }
+
+            //the MIP start is deleted when the model is released
+            if (mipStart != null) {
+                addMipStart();
+            }
 
-            boolean isErroneus = cplex.getStatus().equals(IloCplex.Status.Error);
-            if (!isErroneus) {
+            boolean isSolved = cplex.solve();
+            boolean hasDrained = nodeHandler != null && nodeHandler.hasDrained();
 
-                //construct the solution object, so that we can return it to caller
+            if ( isSolved ) {
 
-                soln.setIsError(isErroneus);
-                soln.setIsUnbounded(cplex.getStatus().equals(IloCplex.Status.Unbounded));
-                soln.setIsFeasible( cplex.getStatus().equals(IloCplex.Status.Feasible));
-                soln.setIsOptimal( cplex.getStatus().equals(IloCplex.Status.Optimal));
+                boolean isErroneus = cplex.getStatus().equals(IloCplex.Status.Error);
+                if (!isErroneus) {
 
-                if (soln.getIsOptimal()) {
-                    soln.setOptimumValue( cplex.getObjValue()); 
+                    //construct the solution object, so that we can return it to caller
 
-                    IloLPMatrix lpMatrix = (IloLPMatrix)cplex.LPMatrixIterator().next();
+                    soln.setIsError(isErroneus);
+                    soln.setIsUnbounded(cplex.getStatus().equals(IloCplex.Status.Unbounded));
+                    soln.setIsFeasible( cplex.getStatus().equals(IloCplex.Status.Feasible));
+                    soln.setIsOptimal( cplex.getStatus().equals(IloCplex.Status.Optimal));
 
-                    //WARNING: we assume that every variable appears in at least 1 constraint or variable bound
-                    //Otherwise, this method of getting all the variables from the matrix may not yield all the
-                    //variables
-                    IloNumVar[] variables = lpMatrix.getNumVars();
-                    double[] variableValues = cplex.getValues(variables);                 
+                    //a drained solve ends with the incumbent it had found, if any, which is feasible
+                    if (soln.getIsFeasibleOrOptimal()) {
+                        soln.setOptimumValue( cplex.getObjValue()); 
 
-                    for ( int index = 0; index < variableValues.length; index ++){
+                        //WARNING: we assume that every variable appears in at least 1 constraint or variable bound
+                        //Otherwise, this method of getting all the variables from the matrix may not yield all the
+                        //variables
+                        IloNumVar[] variables = ModelCache.getVariables(cplex);
+                        double[] variableValues = cplex.getValues(variables);                 
 
-                        String varName = variables[index].getName();
-                        double varValue = variableValues[index];
-                        soln.setVariableValue (varName,  varValue);
+                        for ( int index = 0; index < variableValues.length; index ++){
 
-                    }
-                }                  	         		
-            } else {
-                logger.error("Error: cplex  error.");
-                soln.setIsError(true);    
-                //should we abort in case of error?
+                            String varName = variables[index].getName();
+                            double varValue = variableValues[index];
+                            soln.setVariableValue (varName,  varValue);
+
+                        }
+                    }                  	         		
+                } else {
+                    logger.error("Error: cplex  error.");
+                    soln.setIsError(true);    
+                    //should we abort in case of error?
+                }
+
+            } else if (hasDrained) {
+                //the time slice ended before any solution was found, every open node was farmed out
+                logger.debug("no solution found in the time slice");
+            }else{
+                logger.error("Error: cplex  could not find a feasible solution.");
+                soln.setIsError(true); 
+                //should we abort in this case?
             }
 
-        }else{
-            logger.error("Error: cplex  could not find a feasible solution.");
-            soln.setIsError(true); 
-            //should we abort in this case?
+            simplexIterations = cplex.getNiterations64();
+        } finally {
+            //put back the original bounds, and let the next solver in this JVM reuse the model
+            ModelCache.release(filename, cplex, node.getUpperBounds(), node.getLowerBounds());
         }
 
-        cplex.end();
+        if (incumbentService != null && soln.getIsFeasibleOrOptimal()) {
+            incumbentService.publish(soln.getOptimumValue());
+        }
 
         //append the new nodes (i.e. the farmed out nodes) to the existing node list
         if (newNodeList!=null){        	        	 
@@ -171,34 +337,69 @@ public class CPSolver {
         cplex.setParam(IloCplex.Param.MIP.Strategy.HeuristicFreq, -1);
     }
 
+    //the basis is ignored if it was not taken from this model, or CPLEX rejects it, the node is then solved cold
+    private void installBasis(CompressedBasis basis) {
+        if (basis == null) return;
+
+        try {
+            IloNumVar[] variables = ModelCache.getVariables(cplex);
+            IloRange[] ranges = ModelCache.getRanges(cplex);
+            if (basis.getColumnCount() != variables.length || basis.getRowCount() != ranges.length) {
+                logger.error("Basis of " + basis.getColumnCount() + " columns and " + basis.getRowCount() + 
+                        " rows does not fit the model, it is ignored");
+                return;
+            }
+
+            cplex.setBasisStatuses(variables, basis.getColumnStatuses(), ranges, basis.getRowStatuses());
+        } catch (IloException ex) {
+            logger.error("Basis could not be installed, the node is solved without it " + ex);
+        }
+    }
+
+    //give the values of the MIP start to CPLEX, for the variables of the model it has a value for
+    private void addMipStart() throws IloException {
+
+        IloNumVar[] variables = ModelCache.getVariables(cplex);
+        IloNumVar[] startVariables = new IloNumVar[variables.length];
+        double[] startValues = new double[variables.length];
+        int count = 0;
+        for (IloNumVar variable : variables) {
+            Double value = mipStart.getAllVariableValues().get(variable.getName());
+            if (value != null) {
+                startVariables[count] = variable;
+                startValues[count] = value;
+                count ++;
+            }
+        }
+
+        if (count > 0) {
+            cplex.addMIPStart(Arrays.copyOf(startVariables, count), Arrays.copyOf(startValues, count),
+                    IloCplex.MIPStartEffort.Repair);
+        }
+    }
+
     //use the CPLEX object imported (i.e. the root node) and apply all
     //the bounds to arrive at the interior node	
     private void  convertToInteriorNode( NodeAttachment node   ) throws IloException {
 
-        IloLPMatrix lpMatrix = (IloLPMatrix)cplex.LPMatrixIterator().next();
-
         //WARNING : we assume that every variable appears in at least 1 constraint or variable bound
-        IloNumVar[] variables = lpMatrix.getNumVars();
-
-        for (int index = 0 ; index <variables.length; index ++ ){
+        //the position of a variable in the matrix is its index in the dictionary
+        IloNumVar[] variables = ModelCache.getVariables(cplex);
 
-            IloNumVar thisVar = variables[index];
-            updateVariableBounds(thisVar,node.getLowerBounds(), false );
-            updateVariableBounds(thisVar,node.getUpperBounds(), true );
-
-        }       
+        //only visit the variables which actually have a new bound
+        updateVariableBounds(variables, node.getLowerBounds() );
+        updateVariableBounds(variables, node.getUpperBounds() );
     }
 
-    //find 'thisVar' , and update variable bounds
-    private static void updateVariableBounds(IloNumVar thisVar, Map< String, Double > bounds, boolean isUpperBound   ) 
+    //update variable bounds, keeping whichever bound is more restrictive
+    private static void updateVariableBounds(IloNumVar[] variables, SparseBounds bounds   ) 
             throws IloException{
 
-        String varName = thisVar.getName();
-        boolean isPresentInNewBounds = bounds.containsKey(varName);
+        for (int position = 0 ; position < bounds.size(); position ++ ){
 
-        if (isPresentInNewBounds) {
-            double newBound =   bounds.get(varName)  ;
-            if (isUpperBound){
+            IloNumVar thisVar = variables[bounds.getIndex(position)];
+            double newBound =   bounds.getValue(position)  ;
+            if (bounds.isUpperBound()){
                 if ( thisVar.getUB() > newBound ){
                     //update the more restrictive upper bound
                     thisVar.setUB( newBound );
@@ -208,9 +409,9 @@ public class CPSolver {
                     //update the more restrictive lower bound
                     thisVar.setLB(newBound);
                 }
-            }				
+            }
         }
 
-    }	 
+    }
 
 }
@@ -0,0 +1,20 @@
+package solvers;
+
+//shares the best known optimum among solvers that run at the same time, possibly on different machines
+//
+//a solver publishes every incumbent it finds, and reads the best known optimum whenever it decides whether
+//a node is worth solving. Reading must be cheap, implementations keep the last value they have seen
+//and update it in the background.
+//
+
+public interface IncumbentService {
+
+    //offer an objective value, the service keeps it only if it is better than the best known
+    public void publish(double objectiveValue);
+
+    //the best objective value published so far, or the worst possible value if there is none
+    public double getBestKnownOptimum();
+
+    public void close();
+
+}
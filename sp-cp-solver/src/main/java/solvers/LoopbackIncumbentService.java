@@ -0,0 +1,52 @@
+package solvers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import solverTypes.Solution;
+
+//incumbent service for solvers in the same JVM, such as the local job runner, the pool driver or tests
+//
+//every service created with the same channel name shares one best known optimum
+//
+
+public class LoopbackIncumbentService implements IncumbentService {
+
+    //the best known optimum of every channel, as the bits of a double so that it can be compared and set
+    private static final ConcurrentMap<String, AtomicLong> channels = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong best;
+    private final boolean isMaximization;
+
+    public LoopbackIncumbentService(String channel, boolean isMax) {
+        isMaximization = isMax;
+        AtomicLong initial = new AtomicLong(Double.doubleToLongBits(isMax ? Solution.DOUBLE_MIN : Solution.DOUBLE_MAX));
+        AtomicLong existing = channels.putIfAbsent(channel, initial);
+        best = existing == null ? initial : existing;
+    }
+
+    public void publish(double objectiveValue) {
+        while (true) {
+            long current = best.get();
+            double currentValue = Double.longBitsToDouble(current);
+            boolean isBetter = isMaximization ? objectiveValue > currentValue : objectiveValue < currentValue;
+            if (!isBetter || best.compareAndSet(current, Double.doubleToLongBits(objectiveValue))) {
+                return;
+            }
+        }
+    }
+
+    public double getBestKnownOptimum() {
+        return Double.longBitsToDouble(best.get());
+    }
+
+    public void close() {
+    }
+
+    //forget the best known optimum of a channel, before solving a problem again
+    public static void reset(String channel) {
+        channels.remove(channel);
+    }
+
+}
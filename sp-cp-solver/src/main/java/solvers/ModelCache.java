@@ -0,0 +1,202 @@
+package solvers;
+
+import ilog.concert.IloException;
+import ilog.concert.IloLPMatrix;
+import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
+import ilog.cplex.IloCplex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import solverTypes.SparseBounds;
+import solverTypes.VariableDictionary;
+
+//per JVM cache of imported models, so that a model file is parsed once and not once per node
+//
+//a solver checks out an IloCplex with the original bounds of the model, applies the bounds of its node,
+//and releases the IloCplex when done. Releasing puts back the original bounds of the variables the node
+//had changed, so the next checkout only has to apply its own bounds.
+//
+//if no released IloCplex is available, a new one is imported. The first import of a model also writes a
+//binary .sav copy of it, which is much faster to import than an LP or MPS file.
+//
+
+public class ModelCache {
+
+    private static final Logger logger = Logger.getLogger(ModelCache.class);
+
+    private static final String SAV_EXTENSION = ".sav";
+
+    //CPLEX defaults of the cutoff parameters
+    private static final double DEFAULT_UPPER_CUTOFF = 1e75;
+    private static final double DEFAULT_LOWER_CUTOFF = -1e75;
+
+    private static final Map<String, ModelTemplate> templates = new HashMap<String, ModelTemplate>();
+
+    //the variables of every IloCplex handed out by the cache, in dictionary order
+    private static final Map<IloCplex, IloNumVar[]> variablesOfInstance = new IdentityHashMap<IloCplex, IloNumVar[]>();
+    //and their constraints, in matrix order
+    private static final Map<IloCplex, IloRange[]> rangesOfInstance = new IdentityHashMap<IloCplex, IloRange[]>();
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long importNanos = 0;
+
+    //what we know about a model file after importing it once
+    private static class ModelTemplate {
+        String importFilename;
+        VariableDictionary dictionary;
+        double[] originalUpperBounds;
+        double[] originalLowerBounds;
+        Deque<IloCplex> idleInstances = new ArrayDeque<IloCplex>();
+    }
+
+    //an IloCplex with the model loaded and the original bounds in effect
+    public static synchronized IloCplex checkout (String modelFilename) throws IloException {
+
+        ModelTemplate template = templates.get(modelFilename);
+        if (template != null && !template.idleInstances.isEmpty()) {
+            hits ++;
+            return template.idleInstances.pop();
+        }
+
+        misses ++;
+        long start = System.nanoTime();
+        IloCplex cplex = new IloCplex();
+        cplex.importModel(template == null ? modelFilename : template.importFilename);
+        importNanos += System.nanoTime() - start;
+
+        IloLPMatrix lpMatrix = (IloLPMatrix)cplex.LPMatrixIterator().next();
+        IloNumVar[] variables = lpMatrix.getNumVars();
+        variablesOfInstance.put(cplex, variables);
+        rangesOfInstance.put(cplex, lpMatrix.getRanges());
+
+        if (template == null) {
+            templates.put(modelFilename, createTemplate(modelFilename, cplex, variables));
+        }
+
+        return cplex;
+    }
+
+    //give back an IloCplex, once the bounds of node are no longer needed
+    //the IloCplex must not be used by the caller after this
+    public static synchronized void release (String modelFilename, IloCplex cplex, SparseBounds upperBounds,
+            SparseBounds lowerBounds) {
+
+        ModelTemplate template = templates.get(modelFilename);
+        IloNumVar[] variables = variablesOfInstance.get(cplex);
+
+        try {
+            cplex.clearCallbacks();
+            //the solver may have set a cutoff from its best known optimum
+            cplex.setParam(IloCplex.Param.MIP.Tolerances.UpperCutoff, DEFAULT_UPPER_CUTOFF);
+            cplex.setParam(IloCplex.Param.MIP.Tolerances.LowerCutoff, DEFAULT_LOWER_CUTOFF);
+            //and a MIP start, which may not fit the bounds of the next node
+            if (cplex.getNMIPStarts() > 0) {
+                cplex.deleteMIPStarts(0, cplex.getNMIPStarts());
+            }
+            resetBounds(variables, upperBounds, template.originalUpperBounds);
+            resetBounds(variables, lowerBounds, template.originalLowerBounds);
+            template.idleInstances.push(cplex);
+        } catch (IloException ex) {
+            //do not reuse this instance
+            logger.error(ex);
+            variablesOfInstance.remove(cplex);
+            rangesOfInstance.remove(cplex);
+            cplex.end();
+        }
+    }
+
+    //the variables of an IloCplex handed out by this cache, in dictionary order
+    public static synchronized IloNumVar[] getVariables (IloCplex cplex) throws IloException {
+        IloNumVar[] variables = variablesOfInstance.get(cplex);
+        return variables != null ? variables : ((IloLPMatrix)cplex.LPMatrixIterator().next()).getNumVars();
+    }
+
+    //the constraints of an IloCplex handed out by this cache, in matrix order
+    public static synchronized IloRange[] getRanges (IloCplex cplex) throws IloException {
+        IloRange[] ranges = rangesOfInstance.get(cplex);
+        return ranges != null ? ranges : ((IloLPMatrix)cplex.LPMatrixIterator().next()).getRanges();
+    }
+
+    public static synchronized VariableDictionary getVariableDictionary (String modelFilename) {
+        return templates.get(modelFilename).dictionary;
+    }
+
+    //end every idle IloCplex
+    public static synchronized void clear () {
+        for (ModelTemplate template : templates.values()) {
+            for (IloCplex cplex : template.idleInstances) {
+                variablesOfInstance.remove(cplex);
+                rangesOfInstance.remove(cplex);
+                cplex.end();
+            }
+            template.idleInstances.clear();
+        }
+    }
+
+    public static synchronized long getHits () {
+        return hits;
+    }
+
+    public static synchronized long getMisses () {
+        return misses;
+    }
+
+    //total time spent importing models
+    public static synchronized long getImportMillis () {
+        return importNanos/1000000;
+    }
+
+    private static ModelTemplate createTemplate (String modelFilename, IloCplex cplex, IloNumVar[] variables)
+            throws IloException {
+
+        ModelTemplate template = new ModelTemplate();
+        template.dictionary = VariableDictionary.getInstance(modelFilename, (IloLPMatrix)cplex.LPMatrixIterator().next());
+        template.originalUpperBounds = new double[variables.length];
+        template.originalLowerBounds = new double[variables.length];
+        for (int index = 0; index < variables.length; index ++){
+            template.originalUpperBounds[index] = variables[index].getUB();
+            template.originalLowerBounds[index] = variables[index].getLB();
+        }
+
+        template.importFilename = modelFilename;
+        if (!modelFilename.toLowerCase().endsWith(SAV_EXTENSION)) {
+            try {
+                File savFile = File.createTempFile("model", SAV_EXTENSION);
+                savFile.deleteOnExit();
+                cplex.exportModel(savFile.getAbsolutePath());
+                template.importFilename = savFile.getAbsolutePath();
+            } catch (IOException ex) {
+                //keep importing the original file
+                logger.error(ex);
+            } catch (IloException ex) {
+                logger.error(ex);
+            }
+        }
+
+        return template;
+    }
+
+    private static void resetBounds (IloNumVar[] variables, SparseBounds bounds, double[] originalBounds)
+            throws IloException {
+        if (bounds == null) return;
+        for (int position = 0; position < bounds.size(); position ++){
+            int index = bounds.getIndex(position);
+            if (bounds.isUpperBound()) {
+                variables[index].setUB(originalBounds[index]);
+            } else {
+                variables[index].setLB(originalBounds[index]);
+            }
+        }
+    }
+
+}
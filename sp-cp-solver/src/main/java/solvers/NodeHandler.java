@@ -0,0 +1,62 @@
+package solvers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import solverTypes.NodeAttachment;
+import ilog.concert.IloException;
+import ilog.cplex.IloCplex;
+
+//drains the queue of open nodes once the time slice is over
+//
+//the BranchHandler only sees the time slice when CPLEX branches, so without this every open node would
+//still have its LP solved, and its 2 children farmed out, before the solve ends. Instead, at the first node
+//selection after the time slice, every open node is farmed out as it is, with the bounds and parent LP bound
+//its node data already holds, and the solve is aborted.
+//
+//if some open node has no node data, we cannot farm it out, and we leave the queue to the BranchHandler
+//
+//the drain is only used when CPLEX runs on one thread, see CPSolver.setThreads : with more, the nodes other
+//threads are solving at the time are not in the queue, and would be lost
+//
+
+public class NodeHandler extends IloCplex.NodeCallback {
+
+    private static Logger logger=Logger.getLogger(NodeHandler.class);
+
+    private BranchHandler branchHandler;
+    private volatile boolean hasDrained = false;
+
+    public NodeHandler (BranchHandler branchHandler) {
+        this.branchHandler = branchHandler;
+    }
+
+    //true if the solve was aborted after farming out the open nodes
+    public boolean hasDrained () {
+        return hasDrained;
+    }
+
+    protected void main() throws IloException {
+
+        if (hasDrained || !branchHandler.isTimeSliceOver()) return;
+
+        long remaining = getNremainingNodes64();
+        List<NodeAttachment> openNodes = new ArrayList<NodeAttachment>();
+        for (long index = 0; index < remaining; index ++) {
+            NodeAttachment nodeData = (NodeAttachment) getNodeData(index);
+            if (nodeData == null) {
+                logger.error("Open node without node data, the queue is not drained");
+                return;
+            }
+            openNodes.add(nodeData);
+        }
+
+        logger.info("time slice over, farming out " + remaining + " open nodes");
+        branchHandler.addNewNodes(openNodes);
+        hasDrained = true;
+        abort();
+    }
+
+}
@@ -1,12 +1,23 @@
 package dirmanagers;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
@@ -19,6 +30,12 @@ import org.apache.log4j.Logger;
 public class HdfsDirManager implements IDirManager{
 
     private final String DIR_ROOT = "/SolverDirectory";
+
+    //sidecar index, one file per folder, with a line for every file of nodes appended with a bound
+    //each line is the file name and the best parent LP bound among the nodes appended to it
+    //kept outside DIR_ROOT, so that it is neither counted as a folder nor read as nodes
+    private final String INDEX_ROOT = DIR_ROOT + "_index";
+    private final String INDEX_SEPARATOR = "\t";
      
     private static Configuration conf;
     private static FileSystem fs;
@@ -26,6 +43,14 @@ public class HdfsDirManager implements IDirManager{
 
     final int INVALID_FOLDER_NUM=-1;
 
+    //in memory index of the directory : the names of the files of nodes in every folder, by depth
+    //built by listing the directory once, and then kept up to date with our own changes, so that the 
+    //scheduling queries of the driver need no calls to the NameNode
+    //changes made by other processes are only seen after refresh()
+    private TreeMap<Long, Set<String>> filesByDepth = null;
+    private TreeSet<Long> nonEmptyDepths;
+    private long totalFileCount;
+
     static {
 
         try {
@@ -44,65 +69,47 @@ public class HdfsDirManager implements IDirManager{
     }
 
     public long getLastNonEmptyFolder() throws IllegalArgumentException, IOException {
-        long NUM_DIRS= this.getDirectoryCount();
-
-        long result = INVALID_FOLDER_NUM;
-
-        for ( long index = NUM_DIRS-1; index >=0; index = index -1){
-            if (!isEmpty(index)) {
-                result= index ;
-                break;
-            }
-        }
-
-        return result ;
+        TreeSet<Long> nonEmpty = getNonEmptyFolders();
+        return nonEmpty.isEmpty() ? INVALID_FOLDER_NUM : nonEmpty.last();
     }
 
     public boolean isEmpty(long depth) throws IllegalArgumentException, IOException {
-        String folder = getFolderName(depth);
-        ContentSummary cs = fs.getContentSummary(  new Path(folder) );
-        return cs.getFileCount()==0;
+        return !getNonEmptyFolders().contains(depth);
     } 
 
 
 
     public boolean isEmpty() throws IllegalArgumentException, IOException {		
-        return !( INVALID_FOLDER_NUM<getLastNonEmptyFolder());
+        return getNonEmptyFolders().isEmpty();
     }
 
     public long getFirstNonEmptyFolder() throws IllegalArgumentException, IOException {
-        final long NUM_DIRS = this.getDirectoryCount();
-
-        long result = INVALID_FOLDER_NUM;
-
-        for (int index = 0 ; index <NUM_DIRS; index ++){
-            if (!isEmpty(index)) {
-                result= index ;
-                break;
-            }
-        }
-        return result;
+        TreeSet<Long> nonEmpty = getNonEmptyFolders();
+        return nonEmpty.isEmpty() ? INVALID_FOLDER_NUM : nonEmpty.first();
     }
 
     public long getNumFilesInFolder(long depth) throws IllegalArgumentException, IOException {
-        ContentSummary cs = fs.getContentSummary(  new Path(getFolderName(depth) ) );
-        return cs.getFileCount();
+        return getFileNames(depth).size();
     }
 
     public long getNumFilesInFolder(String foldername)
             throws IllegalArgumentException, IOException {
-        ContentSummary cs = fs.getContentSummary(  new Path(foldername ) );
-        return cs.getFileCount();
+        return getNumFilesInFolder(getDepth(foldername));
     }
 
-    public long getNumFilesTotal() throws IllegalArgumentException, IOException {
-        long sum = 0;
-
-        for (int index =0 ; index < getDirectoryCount(); index ++){
-            sum += getNumFilesInFolder(  index) ;
-        }
+    public synchronized long getNumFilesTotal() throws IllegalArgumentException, IOException {
+        getDirectoryIndex();
+        return totalFileCount;
+    }
 
-        return sum;
+    /**
+     * 
+     * Forget what we know about the directory. The index is rebuilt on the next query. 
+     * 
+     * Call this after other processes, such as reducers, have written into the directory.
+     */
+    public synchronized void refresh() {
+        filesByDepth = null;
     }
 
     public boolean clearAllFoldersExceptRoot( ) {
@@ -128,6 +135,8 @@ public class HdfsDirManager implements IDirManager{
             Path path = new Path(name);			
             fs.delete( path, true);
             fs.mkdirs(path);
+            fs.delete( getIndexPath(name), false);
+            onFolderCleared(getDepth(name));
         } catch (IOException e) {
             logger.error(e);
             result=false;
@@ -139,12 +148,18 @@ public class HdfsDirManager implements IDirManager{
     //Warning: this function should ONLY be used by each map task, with a
     //unique file name per task (such as job id + map task id)
     public boolean appendToFile(String foldername, String filename, List<String> contentList)  {
+        boolean isAdded = appendToPath(new Path(foldername + "/" + filename), contentList);
+        if (isAdded) {
+            onFileAdded(getDepth(foldername), filename);
+        }
+        return isAdded;
+    }
+
+    private boolean appendToPath(Path path, List<String> contentList)  {
 
         boolean isAdded = true;
 
         try {
-            Path path = new Path(foldername + "/" + filename);		
-
             if (!fs.exists(path)) {								
                 fs.createNewFile(path );
             }			
@@ -163,18 +178,296 @@ public class HdfsDirManager implements IDirManager{
         }
 
         return isAdded;
+    }
+
+    public boolean appendToFile(String foldername, String filename, List<String> contentList, double bestBound)  {
+
+        boolean isAdded = appendToFile(foldername, filename, contentList);
+
+        if (isAdded) {
+            List<String> indexLine = new ArrayList<String>();
+            indexLine.add(filename + INDEX_SEPARATOR + bestBound);
+            isAdded = appendToPath(getIndexPath(foldername), indexLine);
+        }
+
+        return isAdded;
+    }
+
+    public boolean moveToFolder(String sourcePath, String foldername, double bestBound, double estimatedCost) {
+
+        boolean isMoved = true;
+
+        try {
+            Path source = new Path(sourcePath);
+            Path folder = new Path(foldername);
+            if (!fs.exists(folder)) {
+                fs.mkdirs(folder);
+            }
+
+            //a rename is a single NameNode operation, the file is never seen half written
+            isMoved = fs.rename(source, new Path(folder, source.getName()));
+            if (isMoved) {
+                onFileAdded(getDepth(foldername), source.getName());
+                List<String> indexLine = new ArrayList<String>();
+                indexLine.add(source.getName() + INDEX_SEPARATOR + bestBound + INDEX_SEPARATOR + estimatedCost);
+                isMoved = appendToPath(getIndexPath(foldername), indexLine);
+            } else {
+                logger.error("Unable to move " + sourcePath + " into " + foldername);
+            }
+        } catch (IOException e) {
+            logger.error(e);
+            isMoved = false;
+        }
+
+        return isMoved;
+    }
+
+    public List<NodeFile> getFiles(long depth, boolean isMaximization) throws IllegalArgumentException, IOException {
+
+        String foldername = getFolderName(depth);
+        Map<String, NodeFile> indexedFiles = readIndex(foldername, isMaximization);
+
+        List<NodeFile> files = new ArrayList<NodeFile>();
+        for (String filename : getFileNames(depth)) {
+            NodeFile file = indexedFiles.get(filename);
+            files.add(file != null ? file : new NodeFile(foldername + "/" + filename, depth, false, 0));
+        }
+
+        return files;
+    }
+
+    public List<NodeFile> getFilesOrderedByBound(final boolean isMaximization) throws IllegalArgumentException, IOException {
+
+        List<NodeFile> files = new ArrayList<NodeFile>();
+        final long NUM_DIRS = this.getDirectoryCount();
+        for (long index = 0 ; index < NUM_DIRS; index ++){
+            files.addAll(getFiles(index, isMaximization));
+        }
+
+        Collections.sort(files, new Comparator<NodeFile>() {
+            public int compare(NodeFile one, NodeFile other) {
+                if (one.isBetterThan(other, isMaximization)) return -1;
+                if (other.isBetterThan(one, isMaximization)) return 1;
+                //shallower files first when the bounds are equal
+                return Long.compare(one.getDepth(), other.getDepth());
+            }
+        });
+
+        return files;
+    }
+
+    public boolean deleteFile(String pathname) {
+        boolean result = true;
+        try {
+            Path path = new Path(pathname);
+            fs.delete(path, false);
+            onFileDeleted(getDepth(path.getParent().toString()), path.getName());
+            result = removeFromIndex(path);
+        } catch (IOException e) {
+            logger.error(e);
+            result = false;
+        }
+        return result;
+    }
 
+    public boolean replaceFile(String pathname, List<String> contentList, double bestBound, double estimatedCost) {
+        boolean isReplaced = true;
+        try {
+            Path path = new Path(pathname);
+            //a hidden name, so that the file is not taken for nodes before it is complete, see isNodeFile
+            Path tempPath = new Path(path.getParent(), "_" + path.getName());
+
+            BufferedWriter br=new BufferedWriter(new OutputStreamWriter(fs.create(tempPath, true)));
+            try {
+                for (String content :contentList ){
+                    br.write(content+"\n");
+                }
+            } finally {
+                br.close();
+            }
 
+            //HDFS does not rename over an existing file, if the rename fails the items are still in the hidden file
+            fs.delete(path, false);
+            isReplaced = fs.rename(tempPath, path);
+            isReplaced = removeFromIndex(path) && isReplaced;
+            if (isReplaced) {
+                List<String> indexLine = new ArrayList<String>();
+                indexLine.add(path.getName() + INDEX_SEPARATOR + bestBound + INDEX_SEPARATOR + estimatedCost);
+                isReplaced = appendToPath(getIndexPath(path.getParent().toString()), indexLine);
+            } else {
+                logger.error("Unable to move " + tempPath + " to " + path);
+                onFileDeleted(getDepth(path.getParent().toString()), path.getName());
+            }
+        } catch (IOException e) {
+            logger.error(e);
+            isReplaced = false;
+        }
+        return isReplaced;
+    }
 
+    //rewrite the index of the folder without this file
+    private boolean removeFromIndex(Path path) throws IOException {
+        Path indexPath = getIndexPath(path.getParent().toString());
+        if (!fs.exists(indexPath)) return true;
 
+        List<String> remaining = new ArrayList<String>();
+        for (String line : readLines(indexPath)) {
+            if (!line.startsWith(path.getName() + INDEX_SEPARATOR)) {
+                remaining.add(line);
+            }
+        }
+        fs.delete(indexPath, false);
+        return remaining.isEmpty() || appendToPath(indexPath, remaining);
+    }
+
+    public List<String> readFolder(String foldername) throws IOException {
+
+        List<String> contentList = new ArrayList<String>();
+
+        for (String filename : getFileNames(getDepth(foldername))) {
+            contentList.addAll(readLines(new Path(foldername + "/" + filename)));
+        }
+
+        return contentList;
+    }
 
+    public List<String> readFile(String path) throws IOException {
+        return readLines(new Path(path));
     }
 
-    //number of folder under root
-    public long getDirectoryCount  () throws IllegalArgumentException, IOException{
-        ContentSummary cs = fs.getContentSummary(  new Path(DIR_ROOT) );
+    //the best bound of every file in the index of this folder
+    private Map<String, NodeFile> readIndex(String foldername, boolean isMaximization) throws IOException {
+        Map<String, NodeFile> files = new HashMap<String, NodeFile>();
+        Path indexPath = getIndexPath(foldername);
+        if (!fs.exists(indexPath)) return files;
+
+        for (String line : readLines(indexPath)) {
+            String[] fields = line.split(INDEX_SEPARATOR);
+            //the estimated cost is only recorded for files written by the reducers
+            double bound = Double.parseDouble(fields[1]);
+            double cost = fields.length > 2 ? Double.parseDouble(fields[2]) : 0;
+            //a file appended to more than once has one line per append, keep the best bound and add up the costs
+            NodeFile existing = files.get(fields[0]);
+            if (existing != null) {
+                bound = isMaximization ? Math.max(existing.getBestBound(), bound) : Math.min(existing.getBestBound(), bound);
+                cost += existing.getEstimatedCost();
+            }
+            files.put(fields[0], new NodeFile(foldername + "/" + fields[0], getDepth(foldername), true, bound, cost));
+        }
+        return files;
+    }
 
-        return -1 + cs.getDirectoryCount();
+    private List<String> readLines(Path path) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader br=new BufferedReader(new InputStreamReader(fs.open(path)));
+        try {
+            String line = br.readLine();
+            while (line != null) {
+                if (!line.trim().isEmpty()) {
+                    lines.add(line.trim());
+                }
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+        return lines;
+    }
+
+    private Path getIndexPath(String foldername) {
+        return new Path(INDEX_ROOT + "/" + new Path(foldername).getName());
+    }
+
+    //number of folder under root, i.e. 1 more than the deepest folder
+    public synchronized long getDirectoryCount  () throws IllegalArgumentException, IOException{
+        TreeMap<Long, Set<String>> index = getDirectoryIndex();
+        return index.isEmpty() ? 0 : 1 + index.lastKey();
+    }
+
+    //the index of the directory, listing the directory if we do not have one
+    private synchronized TreeMap<Long, Set<String>> getDirectoryIndex() throws IOException {
+        if (filesByDepth != null) return filesByDepth;
+
+        TreeMap<Long, Set<String>> index = new TreeMap<Long, Set<String>>();
+        TreeSet<Long> nonEmpty = new TreeSet<Long>();
+        long fileCount = 0;
+
+        Path root = new Path(DIR_ROOT);
+        if (fs.exists(root)) {
+            for (FileStatus folder : fs.listStatus(root)) {
+                long depth = getDepth(folder.getPath().getName());
+                if (!folder.isDirectory() || depth < 0) continue;
+
+                Set<String> filenames = new HashSet<String>();
+                for (FileStatus file : fs.listStatus(folder.getPath())) {
+                    if (file.isFile() && isNodeFile(file.getPath().getName())) {
+                        filenames.add(file.getPath().getName());
+                    }
+                }
+                index.put(depth, filenames);
+                if (!filenames.isEmpty()) nonEmpty.add(depth);
+                fileCount += filenames.size();
+            }
+        }
+
+        filesByDepth = index;
+        nonEmptyDepths = nonEmpty;
+        totalFileCount = fileCount;
+        return filesByDepth;
+    }
+
+    private synchronized TreeSet<Long> getNonEmptyFolders() throws IOException {
+        getDirectoryIndex();
+        return nonEmptyDepths;
+    }
+
+    //names of the files of nodes in folder j
+    private synchronized List<String> getFileNames(long depth) throws IOException {
+        Set<String> filenames = getDirectoryIndex().get(depth);
+        return filenames == null ? new ArrayList<String>() : new ArrayList<String>(filenames);
+    }
+
+    private synchronized void onFileAdded(long depth, String filename) {
+        if (filesByDepth == null || depth < 0) return;
+        Set<String> filenames = filesByDepth.get(depth);
+        if (filenames == null) {
+            filenames = new HashSet<String>();
+            filesByDepth.put(depth, filenames);
+        }
+        if (filenames.add(filename)) {
+            totalFileCount ++;
+            nonEmptyDepths.add(depth);
+        }
+    }
+
+    private synchronized void onFileDeleted(long depth, String filename) {
+        if (filesByDepth == null || !filesByDepth.containsKey(depth)) return;
+        Set<String> filenames = filesByDepth.get(depth);
+        if (filenames.remove(filename)) {
+            totalFileCount --;
+            if (filenames.isEmpty()) nonEmptyDepths.remove(depth);
+        }
+    }
+
+    private synchronized void onFolderCleared(long depth) {
+        if (filesByDepth == null || depth < 0) return;
+        Set<String> filenames = filesByDepth.put(depth, new HashSet<String>());
+        if (filenames != null) totalFileCount -= filenames.size();
+        nonEmptyDepths.remove(depth);
+    }
+
+    //hidden files, such as checksums, are not nodes
+    private boolean isNodeFile(String filename) {
+        return !filename.startsWith("_") && !filename.startsWith(".");
+    }
+
+    //the depth of a folder given by its name or path, -1 if it is not a depth folder
+    private long getDepth(String foldername) {
+        try {
+            return Long.parseLong(new Path(foldername).getName());
+        } catch (NumberFormatException e) {
+            return INVALID_FOLDER_NUM;
+        }
     }
 
 
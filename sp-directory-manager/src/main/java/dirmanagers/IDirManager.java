@@ -38,6 +38,35 @@ public interface IDirManager {
     //insert an item into folder j
     public boolean appendToFile(String folder, String filename, List<String> contentList)  ;
 
+    //insert items into folder j, and record in the index the best parent LP bound among them
+    public boolean appendToFile(String folder, String filename, List<String> contentList, double bestBound)  ;
+
+    //move a finished file of items into folder j, and record in the index the best parent LP bound among them
+    //and the estimated seconds to solve them all
+    public boolean moveToFolder(String sourcePath, String folder, double bestBound, double estimatedCost)  ;
+
+    //the files in folder j, with their bounds
+    public List<NodeFile> getFiles( long depth, boolean isMaximization) throws IllegalArgumentException, IOException;
+
+    //every file in the directory, the file with the best bound first
+    public List<NodeFile> getFilesOrderedByBound( boolean isMaximization) throws IllegalArgumentException, IOException;
+
+    //delete one file, and its entry in the index
+    public boolean deleteFile( String path) ;
+
+    //replace the items of one file, and record its new bound and cost in the index
+    //the old items stay in place until the new ones are written in full
+    public boolean replaceFile( String path, List<String> contentList, double bestBound, double estimatedCost) ;
+
+    //every item in folder j, one per line
+    public List<String> readFolder(String folder) throws IOException;
+
+    //every item in one file
+    public List<String> readFile(String path) throws IOException;
+
+    //forget any cached knowledge of the directory, after other processes have changed it
+    public void refresh();
+
     //other methods 
     public long getDirectoryCount () throws IllegalArgumentException, IOException ;
 
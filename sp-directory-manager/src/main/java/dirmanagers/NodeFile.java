@@ -0,0 +1,64 @@
+package dirmanagers;
+
+/**
+ *
+ * @author tamvadss
+ * A file of nodes in the directory, with the best parent LP bound of the nodes in it, as recorded in the index.
+ *
+ * Files written without a bound, such as the original problem, have no bound.
+ * The estimated cost, in seconds of solver time, is 0 where it is not known.
+ */
+public class NodeFile {
+
+    private final String path;
+    private final long depth;
+    private final boolean hasBound;
+    private final double bestBound;
+    private final double estimatedCost;
+
+    public NodeFile(String path, long depth, boolean hasBound, double bestBound) {
+        this(path, depth, hasBound, bestBound, 0);
+    }
+
+    public NodeFile(String path, long depth, boolean hasBound, double bestBound, double estimatedCost) {
+        this.path = path;
+        this.depth = depth;
+        this.hasBound = hasBound;
+        this.bestBound = bestBound;
+        this.estimatedCost = estimatedCost;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getDepth() {
+        return depth;
+    }
+
+    public boolean hasBound() {
+        return hasBound;
+    }
+
+    public double getBestBound() {
+        return bestBound;
+    }
+
+    public double getEstimatedCost() {
+        return estimatedCost;
+    }
+
+    //whether this file should be solved before other
+    //files without a bound come first, since we know nothing that would let us postpone them
+    public boolean isBetterThan(NodeFile other, boolean isMaximization) {
+        if (hasBound != other.hasBound) {
+            return !hasBound;
+        }
+        return isMaximization ? bestBound > other.bestBound : bestBound < other.bestBound;
+    }
+
+    public String toString() {
+        return path + (hasBound ? " bound " + bestBound : "");
+    }
+
+}
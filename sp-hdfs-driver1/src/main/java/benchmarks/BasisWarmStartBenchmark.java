@@ -0,0 +1,97 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import solverTypes.NodeAttachment;
+import solverTypes.NodeAttachmentCodec;
+import solverTypes.Solution;
+import solverTypes.VariableDictionary;
+import solvers.CPSolver;
+import solvers.ModelCache;
+
+/**
+ *
+ * @author tamvadss
+ * Simplex iterations and solve time per migrated node, with and without the parent's LP basis.
+ *
+ * The original problem is solved for a few seconds, and the nodes it farms out carry their parent's basis.
+ * The drain of open nodes is off, since drained nodes have no basis, and nodes without one are skipped.
+ * Every node is then migrated twice, once with and once without the basis, and solved until its first
+ * branch. The model is imported again before every solve, as it would be on another machine, so that
+ * no solve starts from what the previous one left in CPLEX. Import time is not counted.
+ * usage : BasisWarmStartBenchmark model.lp ismax [root seconds] [max nodes]
+ */
+public class BasisWarmStartBenchmark {
+
+    private static final Logger logger = Logger.getLogger(BasisWarmStartBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+
+        String filename = args[0];
+        boolean isMax = Boolean.parseBoolean(args[1]);
+        int rootSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int maxNodes = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        double noOptimum = isMax ? Solution.DOUBLE_MIN : Solution.DOUBLE_MAX;
+
+        CPSolver rootSolver = new CPSolver(filename, null, isMax);
+        rootSolver.setCarryBasis(true);
+        rootSolver.setDrainOnHalt(false);
+        List<NodeAttachment> solvedNodes = new ArrayList<NodeAttachment>();
+        rootSolver.solve(solvedNodes, rootSeconds, noOptimum);
+        VariableDictionary dictionary = rootSolver.getVariableDictionary();
+
+        List<NodeAttachment> farmedNodes = new ArrayList<NodeAttachment>();
+        for (NodeAttachment node : solvedNodes) {
+            if (node.getParentBasis() != null) farmedNodes.add(node);
+        }
+        logger.info(farmedNodes.size() + " of " + solvedNodes.size() + " farmed nodes carry a basis");
+
+        StringBuilder report = new StringBuilder(
+                "node, cold iterations, warm iterations, cold ms, warm ms, cold bytes, warm bytes");
+        long[] totals = new long[6];
+        int nodeCount = Math.min(maxNodes, farmedNodes.size());
+        for (int index = 0; index < nodeCount; index ++) {
+
+            NodeAttachment node = farmedNodes.get(index);
+            byte[] warmNode = NodeAttachmentCodec.encode(node, dictionary);
+            NodeAttachment coldCopy = NodeAttachmentCodec.decode(warmNode, dictionary);
+            coldCopy.setParentBasis(null);
+            byte[] coldNode = NodeAttachmentCodec.encode(coldCopy, dictionary);
+
+            long[] cold = solveUntilFirstBranch(filename, coldNode, isMax, noOptimum);
+            long[] warm = solveUntilFirstBranch(filename, warmNode, isMax, noOptimum);
+            long[] row = {cold[0], warm[0], cold[1], warm[1], coldNode.length, warmNode.length};
+
+            report.append("\n").append(index);
+            for (int column = 0; column < row.length; column ++) {
+                report.append(", ").append(row[column]);
+                totals[column] += row[column];
+            }
+        }
+
+        if (nodeCount > 0) {
+            report.append("\nmean");
+            for (long total : totals) {
+                report.append(", ").append(total / nodeCount);
+            }
+        }
+        logger.info(report.toString());
+    }
+
+    //simplex iterations and milliseconds, of solving a migrated node on a freshly imported model
+    private static long[] solveUntilFirstBranch(String filename, byte[] encodedNode, boolean isMax, double noOptimum)
+            throws Exception {
+
+        ModelCache.clear();
+        CPSolver solver = CPSolver.fromEncodedNode(filename, encodedNode, isMax);
+
+        //a time slice of 0 farms out the children of the first branch, and stops
+        long start = System.currentTimeMillis();
+        solver.solve(null, 0, noOptimum);
+        return new long[] {solver.getSimplexIterations(), System.currentTimeMillis() - start};
+    }
+
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import dirmanagers.HdfsDirManager;
+import dirmanagers.IDirManager;
+import drivers.HDFSDriver;
+import drivers.PoolDriver;
+
+/**
+ *
+ * @author tamvadss
+ * Wall clock time per instance of the MapReduce engine ( HDFSDriver ) and the worker pool engine ( PoolDriver ).
+ *
+ * Before every run, the directory is reset to hold only the original problem.
+ * usage : EngineComparison -D ismax=false [-D poolworkers=8] instance1.lp instance2.lp ...
+ */
+public class EngineComparison {
+
+    private static final Logger logger = Logger.getLogger(EngineComparison.class);
+
+    public static void main(String[] args) throws Exception {
+
+        GenericOptionsParser parser = new GenericOptionsParser(new Configuration(), args);
+        Configuration conf = parser.getConfiguration();
+        String[] instances = parser.getRemainingArgs();
+
+        StringBuilder report = new StringBuilder("instance, MapReduce ms, pool ms");
+        for (String instance : instances) {
+            conf.set(HDFSDriver.ORIGINAL_LP_FILE, instance);
+            long mapReduceMillis = timeRun(new HDFSDriver(), conf);
+            long poolMillis = timeRun(new PoolDriver(), conf);
+            report.append("\n").append(instance).append(", ").append(mapReduceMillis).append(", ").append(poolMillis);
+        }
+
+        logger.info(report.toString());
+    }
+
+    private static long timeRun(Tool engine, Configuration conf) throws Exception {
+
+        resetDirectory();
+
+        long start = System.currentTimeMillis();
+        int exitCode = ToolRunner.run(new Configuration(conf), engine, new String[0]);
+        long elapsed = System.currentTimeMillis() - start;
+
+        if (exitCode != 0) {
+            logger.error(engine.getClass().getSimpleName() + " failed with exit code " + exitCode);
+        }
+        return elapsed;
+    }
+
+    //only the original problem in the root folder
+    private static void resetDirectory() {
+        IDirManager dirManager = new HdfsDirManager();
+        dirManager.clearAllFoldersExceptRoot();
+        String rootFolder = dirManager.getFolderName(0);
+        dirManager.clearFolder(rootFolder);
+        dirManager.appendToFile(rootFolder, "0.txt", Arrays.asList(HDFSDriver.Map.ORIGINAL_PROBLEM));
+    }
+
+}
@@ -0,0 +1,198 @@
+package benchmarks;
+
+import hadoopTypes.NodeAttachmentWritable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.log4j.Logger;
+
+import solverTypes.NodeAttachment;
+import solverTypes.SparseBounds;
+import solverTypes.VariableDictionary;
+
+import com.google.gson.Gson;
+
+/**
+ *
+ * @author tamvadss
+ * Round trip and size comparison of the JSON and binary formats for migrated nodes.
+ *
+ * Nodes are synthetic : binary variables fixed by branching, plus a few tightened general integers.
+ * usage : NodeCodecBenchmark [number of variables] [number of nodes] [max depth]
+ */
+public class NodeCodecBenchmark {
+
+    private static final Logger logger = Logger.getLogger(NodeCodecBenchmark.class);
+
+    public static void main(String[] args) throws IOException {
+
+        int numVariables = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int numNodes = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        int maxDepth = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+
+        String[] names = new String[numVariables];
+        for (int index = 0; index < numVariables; index ++){
+            names[index] = "x" + index;
+        }
+        VariableDictionary dictionary = new VariableDictionary(names);
+
+        Random random = new Random(1);
+        List<NodeAttachment> nodes = new ArrayList<NodeAttachment>();
+        for (int count = 0; count < numNodes; count ++){
+            nodes.add(randomNode(random, numVariables, 1 + random.nextInt(maxDepth)));
+        }
+
+        //JSON, in the name keyed form that nodes were migrated in before the binary format
+        Gson gson = new Gson();
+        long jsonBytes = 0;
+        long start = System.nanoTime();
+        List<String> jsonOut = new ArrayList<String>();
+        for (NodeAttachment node : nodes){
+            String json = gson.toJson(new JSONNode(node, dictionary));
+            jsonBytes += json.getBytes(StandardCharsets.UTF_8).length;
+            jsonOut.add(json);
+        }
+        long jsonEncodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<NodeAttachment> jsonRoundTrip = new ArrayList<NodeAttachment>();
+        for (String json : jsonOut){
+            jsonRoundTrip.add(gson.fromJson(json, JSONNode.class).toNode(dictionary));
+        }
+        long jsonDecodeNanos = System.nanoTime() - start;
+
+        //binary, through the Writable
+        DataOutputBuffer out = new DataOutputBuffer();
+        start = System.nanoTime();
+        for (NodeAttachment node : nodes){
+            NodeAttachmentWritable.fromNode(node, dictionary).write(out);
+        }
+        long binaryEncodeNanos = System.nanoTime() - start;
+        long binaryBytes = out.getLength();
+
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        start = System.nanoTime();
+        List<NodeAttachment> binaryRoundTrip = new ArrayList<NodeAttachment>();
+        NodeAttachmentWritable writable = new NodeAttachmentWritable();
+        for (int count = 0; count < numNodes; count ++){
+            writable.readFields(in);
+            binaryRoundTrip.add(writable.toNode(dictionary));
+        }
+        long binaryDecodeNanos = System.nanoTime() - start;
+
+        //check that both formats give back the nodes we started with
+        for (int count = 0; count < numNodes; count ++){
+            if (!isSameNode(nodes.get(count), jsonRoundTrip.get(count)) || !isSameNode(nodes.get(count), binaryRoundTrip.get(count))) {
+                throw new IllegalStateException("Round trip failed for node " + count);
+            }
+        }
+
+        long sequenceFileBytes = writeSequenceFile(nodes, dictionary);
+
+        logger.info("variables " + numVariables + ", nodes " + numNodes + ", max depth " + maxDepth);
+        logger.info("JSON   bytes " + jsonBytes + ", encode ms " + jsonEncodeNanos/1000000 + ", decode ms " + jsonDecodeNanos/1000000);
+        logger.info("binary bytes " + binaryBytes + ", encode ms " + binaryEncodeNanos/1000000 + ", decode ms " + binaryDecodeNanos/1000000);
+        logger.info("SequenceFile bytes " + sequenceFileBytes);
+        logger.info("size ratio JSON/binary " + ((double) jsonBytes)/binaryBytes);
+    }
+
+    private static NodeAttachment randomNode(Random random, int numVariables, int depth) {
+
+        NodeAttachment node = new NodeAttachment(depth, random.nextDouble()*1000);
+
+        //one binary fixing per level of the tree, each one either an upper or a lower bound
+        for (int level = 0; level < depth; level ++){
+            int index = random.nextInt(numVariables);
+            if (!node.getUpperBounds().contains(index) && !node.getLowerBounds().contains(index)) {
+                if (random.nextBoolean()) {
+                    node.mergeBound(index, 0.0, true);
+                } else {
+                    node.mergeBound(index, 1.0, false);
+                }
+            }
+        }
+        //and a few tightenings on general integers
+        for (int count = 0; count < depth/10; count ++){
+            node.mergeBound(random.nextInt(numVariables), (double) random.nextInt(500), true);
+        }
+
+        return node;
+    }
+
+    //the JSON layout of a node with bounds keyed by variable name
+    private static class JSONNode {
+
+        private int depth;
+        private Map<String, Double> upperBounds = new Hashtable<String, Double>();
+        private Map<String, Double> lowerBounds = new Hashtable<String, Double>();
+        private double parentsLPRelaxOptValue;
+
+        JSONNode(NodeAttachment node, VariableDictionary dictionary) {
+            depth = node.getDepth();
+            parentsLPRelaxOptValue = node.getParentLPRElaxOptimumValue();
+            toMap(node.getUpperBounds(), upperBounds, dictionary);
+            toMap(node.getLowerBounds(), lowerBounds, dictionary);
+        }
+
+        NodeAttachment toNode(VariableDictionary dictionary) {
+            NodeAttachment node = new NodeAttachment(depth, parentsLPRelaxOptValue);
+            for (Entry<String, Double> entry : upperBounds.entrySet()){
+                node.mergeBound(dictionary.indexOf(entry.getKey()), entry.getValue(), true);
+            }
+            for (Entry<String, Double> entry : lowerBounds.entrySet()){
+                node.mergeBound(dictionary.indexOf(entry.getKey()), entry.getValue(), false);
+            }
+            return node;
+        }
+
+        private static void toMap(SparseBounds bounds, Map<String, Double> map, VariableDictionary dictionary) {
+            for (int position = 0; position < bounds.size(); position ++){
+                map.put(dictionary.nameOf(bounds.getIndex(position)), bounds.getValue(position));
+            }
+        }
+    }
+
+    private static boolean isSameNode(NodeAttachment one, NodeAttachment other) {
+        return one.getDepth() == other.getDepth() &&
+               one.getParentLPRElaxOptimumValue() == other.getParentLPRElaxOptimumValue() &&
+               one.getUpperBounds().equals(other.getUpperBounds()) &&
+               one.getLowerBounds().equals(other.getLowerBounds());
+    }
+
+    private static long writeSequenceFile(List<NodeAttachment> nodes, VariableDictionary dictionary) throws IOException {
+
+        Configuration conf = new Configuration();
+        FileSystem local = FileSystem.getLocal(conf);
+        File file = File.createTempFile("nodes", ".seq");
+        file.delete();
+        Path path = new Path(file.getAbsolutePath());
+
+        SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(IntWritable.class), SequenceFile.Writer.valueClass(NodeAttachmentWritable.class));
+        for (NodeAttachment node : nodes){
+            writer.append(new IntWritable(node.getDepth()), NodeAttachmentWritable.fromNode(node, dictionary));
+        }
+        writer.close();
+
+        long size = local.getFileStatus(path).getLen();
+        local.delete(path, false);
+        return size;
+    }
+
+}
@@ -4,13 +4,25 @@ import ilog.concert.IloException;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -18,14 +30,21 @@ import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path; 
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer; 
+import org.apache.hadoop.mapreduce.TaskReport;
+import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.Mapper.Context;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
@@ -34,10 +53,18 @@ import org.apache.zookeeper.KeeperException;
 import clients.ConfigClient;
 import dirmanagers.HdfsDirManager;
 import dirmanagers.IDirManager;
+import dirmanagers.NodeFile;
+import hadoopTypes.NodeAttachmentWritable;
+import hadoopTypes.SolverKeyPartitioner;
+import hadoopTypes.SolverKeyWritable;
+import hadoopTypes.SolverValueWritable;
 import server.ActiveKeyValueStore;
 import solverTypes.NodeAttachment;
 import solverTypes.Solution;
 import solvers.CPSolver;
+import solvers.IncumbentService;
+import solvers.LoopbackIncumbentService;
+import solvers.ModelCache;
 
 /**
  * 
@@ -55,24 +82,81 @@ public class HDFSDriver extends Configured implements Tool {
     //Note that we have a separate directory manager for reading the "CPLEX tree nodes"
     private static  FileSystem fs =null;	
 
-    //Folder where reduced solutions are put
-    final String OUTPUT_DIR = "/user/ubuntu/testing/wordcount/output";
+    //Folder where reduced solutions are put, in a sub folder per iteration
+    final static String OUTPUT_DIR = "/user/ubuntu/testing/wordcount/output";
 
-    //define a constant key string used to emit solutions and new nodes
+    //Sub folder of the output folder where the reducers write new nodes, one sub folder per depth
+    //the driver moves these files into the directory once the job has committed them
+    final static String NEW_NODES_DIR = "nodes";
+    //Sub folder of the output folder where the reducers describe the files they wrote, one line per file :
+    //the file's base output path, the best parent LP bound and the estimated cost of its nodes
+    final static String FILE_STATS_DIR = "filestats";
+
+    //the best solution so far, in JSON, which every job ships to its mappers in the distributed cache
+    //the mappers find it in their working directory under INCUMBENT_LINK, and start every node from it
+    //every iteration has a file of its own in this folder, since a cached file must not change while a job runs
+    final static String INCUMBENT_DIR = "/user/ubuntu/testing/incumbent";
+    final static String INCUMBENT_LINK = "incumbent.json";
+
+    //define a constant key string used to write the reduced solution
     final static Text CONSTANT_KEY_STRING_SOLN = new Text("SOLN");
-    //note that newly generated nodes are emitted with their depth as the key
+    //note that mappers emit solutions keyed by their objective, and newly generated nodes keyed by their depth,
+    //see SolverKeyWritable
 
     // the original problem file name which must be on local disk of every machine, and whether
     // this is a maximization, must both be supplied with -D option with these keys
     // 
-    static final String IS_MAXIMIZATION = "ismax"  ; 	
-    static final String BEST_KNOWN_OPTIMUM = "BEST_KNOWN_OPTIMUM"  ;      
-    static final String ORIGINAL_LP_FILE = "lpfile";
+    public static final String IS_MAXIMIZATION = "ismax"  ; 	
+    public static final String BEST_KNOWN_OPTIMUM = "BEST_KNOWN_OPTIMUM"  ;      
+    public static final String ORIGINAL_LP_FILE = "lpfile";
+
+    //-D batchmap=true solves all the nodes of a map task with one warm solver, see BatchMap
+    //the task's time budget, in seconds, is then set with -D tasktimebudget
+    static final String BATCH_MAPPER = "batchmap";
+    static final String TASK_TIME_BUDGET = "tasktimebudget";
+
+    //-D incumbentservice=loopback|zookeeper lets running mappers share incumbents, see IncumbentService
+    //loopback only reaches mappers in the same JVM, such as with the local job runner
+    //the ZooKeeper ensemble is set with -D zookeeper, ZOO_SERVER by default
+    static final String INCUMBENT_SERVICE = "incumbentservice";
+    static final String ZOOKEEPER = "zookeeper";
+
+    //-D carrybasis=true makes the mappers farm out nodes with the LP basis of their parent, see CompressedBasis
+    //only the children of a branched node have a basis, so this turns off drainonhalt
+    static final String CARRY_BASIS = "carrybasis";
+
+    //by default a solver farms out its open nodes as they are when its time slice is over, see NodeHandler
+    //-D drainonhalt=false solves every open node once more and farms out its children instead
+    //it is ignored with carrybasis=true or solverthreads above 1
+    static final String DRAIN_ON_HALT = "drainonhalt";
+
+    //-D solverthreads lets CPLEX use that many threads in every mapper, 1 by default, since the mappers of a
+    //worker already share its cores. With more than 1 the open nodes are not drained.
+    static final String SOLVER_THREADS = "solverthreads";
+
+    //-D pipelinedepth is the number of jobs that may run at once, on files of nodes no other job has claimed
+    //1 runs one job at a time
+    static final String PIPELINE_DEPTH = "pipelinedepth";
+    static final int DEFAULT_PIPELINE_DEPTH = 2;
+    //how often the driver checks if one of the running jobs is done, milliseconds
+    static final int JOB_POLL_MILLIS = 1000;
+
+    //the iteration number, so that the names of the files written by the reducers are unique in the directory
+    static final String ITERATION = "iteration";
 
     static final int NUM_MAPS_PER_WORKER = 4 ;
     static final int NUM_WORKERS = 3 ; 
     static final int NUM_FILES_PER_FOLDER = NUM_WORKERS*NUM_MAPS_PER_WORKER ; //number of workers * cores per worker
 
+    //nodes the mappers did not solve, because their parent LP bound was no better than the incumbent
+    public static enum PruningCounter { SKIPPED_IN_MAPPER }
+
+    //how often the mappers found the model already imported in their JVM, and the time spent importing it
+    public static enum ModelCacheCounter { HITS, MISSES, IMPORT_MILLIS }
+
+    //solver time spent on interior nodes, and their total weight in thousandths, see NodeCostModel
+    public static enum SolveTimeCounter { SOLVE_MILLIS, WEIGHT_THOUSANDTHS }
+
 
     static{
 
@@ -108,6 +192,16 @@ public class HDFSDriver extends Configured implements Tool {
 
         //check if -D ismax=false
         boolean isMaximization = this.getConf().get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
+
+        //which nodes to solve in every iteration
+        NodeSelectionPolicy selectionPolicy = NodeSelectionPolicy.forName(
+                this.getConf().get(NodeSelectionPolicy.SELECTION_POLICY), NUM_FILES_PER_FOLDER);
+        //by default, enough nodes for one time slice on every map slot
+        double packCost = this.getConf().getDouble(NodeSelectionPolicy.PACK_COST, 
+                NUM_FILES_PER_FOLDER * Map.INTERIOR_TIME_SLICE);
+        if (packCost > 0) {
+            selectionPolicy = new NodeSelectionPolicy.Packing(selectionPolicy, packCost);
+        }
         
         //start with an infeasible solution as the current best solution
         Solution currentBestSolution = new Solution(isMaximization);
@@ -127,105 +221,105 @@ public class HDFSDriver extends Configured implements Tool {
 
         //reset the CPLEX directory in preparation for our iterations
         dirManager.clearAllFoldersExceptRoot();
+
+        //forget the incumbents of any earlier run on this problem
+        resetIncumbentService(this.getConf(), isMaximization);
         
         //start the configuration service
         //startConfigService();
         //prepare the client for future use
         //ConfigClient configClient = new ConfigClient( );
 
-        //we loop until the directory of CPLEX nodes is empty, i.e. all CPLEX nodes have been solved        
-        while (! dirManager.isEmpty() && MAX_ITER_COUNT >iterationCount) {
+        //a job is submitted as soon as there are files which no running job has claimed, with up to 
+        //-D pipelinedepth jobs running at once. Every job writes to an output folder of its own. Once a job is 
+        //done its new nodes are published at once, and its solution is harvested, and its output folder 
+        //deleted, in the background
+        int pipelineDepth = Math.max(1, this.getConf().getInt(PIPELINE_DEPTH, DEFAULT_PIPELINE_DEPTH));
+        List<IterationJob> runningJobs = new ArrayList<IterationJob>();
+        Set<String> claimedPaths = new HashSet<String>();
+        ExecutorService bookkeeper = Executors.newSingleThreadExecutor();
+        List<Future<Solution>> harvests = new ArrayList<Future<Solution>>();
 
-            logger.info("Starting iteration "+iterationCount);
-            if (currentBestSolution.getIsOptimal()){
-                logger.info("Best known optimum solution so far is " + currentBestSolution.getOptimumValue());
-            }else{
-                logger.info("No optimum solution is known yet.");
-            }
+        //when the last running job finished, to measure how long the cluster waits for the next job
+        long idleSince = System.currentTimeMillis();
+        long totalIdleMillis = 0;
 
-            //we use zoo keeper to keep track of how many workers are still active
-            //logger.info("Zoo counter value is = " + configUpdater.read());
-            //re initialize counter
-            //configUpdater.update("3");
+        fs.delete(new Path(OUTPUT_DIR), true);
 
-            Configuration conf = this.getConf();      	    
-            // Create map reduce job
-            Job job = Job.getInstance(conf, "DoopLex");
-            job.setJarByClass(this.getClass());
-            
-            //set the best known optimum so far into the configuration
-            //this is used to farm out nodes which are potentially better that the current solution
-            //configClient.connect(ZOO_SERVER);
-            //configClient.write(Double.toString(currentBestSolution.getOptimumValue()));
-            //logger.info("Updated config with best known optimum solution    " + configClient.read());
-            //configClient.close();
-            
-            //we always do a simplified version of BFS right now, so the input folder is the
-            //smallest folder from the Directory manager.
-            //We can do DFS by selecting the largest folder.
-            //Not sure how to do best first.
-            //
-            //Note that Hadoop allows us to take more than 1 folder as input, if needed.
-            //We can also use wild cards to create the input folders
-            //
-            long   inputFolder =  dirManager.getFirstNonEmptyFolder() ;    
-            logger.info("Processing nodes in folder " + inputFolder);
-
-            // Use TextInputFormat to define the input folder for maps
-            FileInputFormat.addInputPath(job, new Path( dirManager.getFolderName(inputFolder) ));
-
-            try{
-                // delete output folder , true for recursive	
-                fs.delete(new Path(OUTPUT_DIR), true); 	
-                //logger.debug("deleted  output folder in preparation for next iteration" + OUTPUT_DIR);
-            } catch (IOException ioex) {
-                logger.error(ioex);
-            }
+        //we loop until the directory of CPLEX nodes is empty, i.e. all CPLEX nodes have been solved        
+        while (! dirManager.isEmpty() || ! runningJobs.isEmpty()) {
 
-            //set the output folder
-            FileOutputFormat.setOutputPath(job, new Path(OUTPUT_DIR));
+            //take in the solutions harvested so far
+            currentBestSolution = collectHarvests(harvests, currentBestSolution, isMaximization, false);
 
-            job.setMapperClass(Map.class);    	    
-            job.setReducerClass(Reduce   .class);
-            job.setOutputKeyClass(Text.class);
-            //note that the Solution we emit is the solution in JSON string format  
-            job.setOutputValueClass(Text.class);
+            //the selection policy picks the files of nodes to solve in this iteration, 
+            //a whole folder for BFS and DFS, or the files with the best bounds from any folder
+            List<NodeFile> inputFiles = new ArrayList<NodeFile>();
+            if (runningJobs.size() < pipelineDepth && MAX_ITER_COUNT >iterationCount) {
+                inputFiles = selectionPolicy.select(dirManager, isMaximization, currentBestSolution, claimedPaths);
+            }
 
-            exitCode= (job.waitForCompletion(true)? 0:1 ) ;	    	
+            if (! inputFiles.isEmpty()) {
 
-            if(0==exitCode){
-                Solution solnFromReduce = getReducedSolution(conf);	
-                if (! currentBestSolution  .isBetterThan(solnFromReduce, isMaximization)){
+                logger.info("Starting iteration "+iterationCount);
+                if (currentBestSolution.getIsOptimal()){
+                    logger.info("Best known optimum solution so far is " + currentBestSolution.getOptimumValue());
+                }else{
+                    logger.info("No optimum solution is known yet.");
+                }
 
-                    //we have found a better optimum
-                    currentBestSolution=solnFromReduce;
+                //no point importing and solving nodes that cannot beat the incumbent
+                long nodesSkippedBeforeJob = pruneDominatedNodes(dirManager, inputFiles, currentBestSolution, isMaximization);
+                if (inputFiles.isEmpty()) {
+                    logger.info("Skipped " + nodesSkippedBeforeJob + " dominated nodes, nothing left to solve in this iteration");
+                    iterationCount	++;
+                    continue;
+                }
+                logger.info("Processing nodes in files " + inputFiles);
+
+                if (runningJobs.isEmpty()) {
+                    long idleMillis = System.currentTimeMillis() - idleSince;
+                    totalIdleMillis += idleMillis;
+                    logger.info("Iteration " + iterationCount + " submitted " + idleMillis + " ms after the cluster went idle");
+                } else {
+                    logger.info("Iteration " + iterationCount + " submitted while " + runningJobs.size() + 
+                            " jobs are running, no idle gap");
+                }
 
-                    //its possible that both current and new solutions were infeasible
-                    if (currentBestSolution.getIsFeasibleOrOptimal()){
-                        logger.info("the current best known optimum is ="+ currentBestSolution.getOptimumValue());
-                    }    	else{
-                        logger.info("no optimum solution as of yet");
-                    }
-                } else{
-                    logger.info("  no better solution found in this iteration  " );
-                }    	    	 
-            } else {
-                logger.error("Map reduce job resulted in error");
-                System.exit(exitCode);
-            }
-            
-            //set the current best solution into the configuration
-            conf.set(BEST_KNOWN_OPTIMUM, (new Double( currentBestSolution.getOptimumValue())).toString());
+                IterationJob iteration = submitIteration(iterationCount, inputFiles, currentBestSolution);
+                iteration.nodesSkippedBeforeJob = nodesSkippedBeforeJob;
+                runningJobs.add(iteration);
+                for (NodeFile inputFile : inputFiles) {
+                    claimedPaths.add(inputFile.getPath());
+                }
 
-            //prepare for next iteration 
+                iterationCount	++;
+                continue;
+            }
 
-            //delete files from folder we just processed, we do not want to process them again
-            dirManager.clearFolder(dirManager.getFolderName(inputFolder));
+            if (runningJobs.isEmpty()) {
+                //the iteration limit was reached
+                break;
+            }
 
-            iterationCount	++;    	    
+            //once a job is done, its new nodes are the inputs of the next jobs
+            IterationJob finished = waitForAnyJob(runningJobs);
+            long finishTime = finished.job.getFinishTime();
+            runningJobs.remove(finished);
+            finishIteration(finished, dirManager, bookkeeper, harvests);
+            for (NodeFile inputFile : finished.inputFiles) {
+                claimedPaths.remove(inputFile.getPath());
+            }
+            if (runningJobs.isEmpty()) {
+                idleSince = finishTime > 0 ? finishTime : System.currentTimeMillis();
+            }
 
         } //end while directory not empty
 
+        currentBestSolution = collectHarvests(harvests, currentBestSolution, isMaximization, true);
+        bookkeeper.shutdown();
+        logger.info("The cluster was idle between jobs for " + totalIdleMillis + " ms in all");
+
         //print some statistics and exit
         logger.info("Solution found in " + iterationCount + " iterations");
         //logger.info("Number of files generated " + numberofFilesGenerated);
@@ -237,7 +331,76 @@ public class HDFSDriver extends Configured implements Tool {
         return exitCode;
     }
 
-    public static class Map extends Mapper<LongWritable, Text, Text, Text> {	
+    public static class Map extends Mapper<LongWritable, Text, SolverKeyWritable, SolverValueWritable> {
+
+        //temporarily hard coded
+        static final int ROOT_TIME_SLICE = 2;
+        static final int INTERIOR_TIME_SLICE = 60;
+
+        //the text of the original problem in the CPLEX root folder will contain this line
+        public static final String ORIGINAL_PROBLEM = "ORIGINAL_PROBLEM";
+
+        //the model cache is per JVM, and the JVM may be reused across tasks, so we only count what this task did
+        private long cacheHitsAtSetup;
+        private long cacheMissesAtSetup;
+        private long importMillisAtSetup;
+
+        //the best solution of all the nodes of this task, the only one the task emits
+        protected Solution bestSolutionInTask;
+        protected boolean isMaxInTask;
+
+        //weighs the nodes we solve, so that the driver can relate weight to solve time
+        protected NodeCostModel costModel;
+
+        //shares incumbents with the other mappers while they run, may be null
+        protected IncumbentService incumbentService;
+
+        //the incumbent the driver distributed with the job, the MIP start of every node, may be null
+        protected Solution distributedIncumbent;
+
+        //new nodes are dealt to the shards in turn, see SolverKeyWritable
+        private long newNodeCount;
+
+        //estimated solve time of the new nodes emitted to every shard, by depth, sent to the reducers at cleanup
+        private HashMap<Integer, double[]> shardCosts = new HashMap<Integer, double[]>();
+
+        protected void setup(Context context) throws IOException, InterruptedException {
+            cacheHitsAtSetup = ModelCache.getHits();
+            cacheMissesAtSetup = ModelCache.getMisses();
+            importMillisAtSetup = ModelCache.getImportMillis();
+            isMaxInTask = context.getConfiguration().get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
+            bestSolutionInTask = new Solution(isMaxInTask);
+            costModel = new NodeCostModel(context.getConfiguration(), INTERIOR_TIME_SLICE);
+            incumbentService = createIncumbentService(context.getConfiguration(), isMaxInTask);
+            distributedIncumbent = readDistributedIncumbent();
+            //so that the tasks do not all start with the same shard
+            newNodeCount = context.getTaskAttemptID().getTaskID().getId();
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            if (incumbentService != null) {
+                incumbentService.close();
+            }
+
+            //emit the sub tree solution
+            context.write(SolverKeyWritable.forSolution(bestSolutionInTask, isMaxInTask), 
+                    new SolverValueWritable(new Text(bestSolutionInTask.toJSONString())));
+
+            //and the cost of the new nodes, so that the reducers can cut their files without holding the nodes
+            for (java.util.Map.Entry<Integer, double[]> entry : shardCosts.entrySet()) {
+                double[] costs = entry.getValue();
+                for (int shard = 0; shard < costs.length; shard ++) {
+                    if (costs[shard] > 0) {
+                        context.write(SolverKeyWritable.forShardCost(entry.getKey(), shard), 
+                                new SolverValueWritable(new DoubleWritable(costs[shard])));
+                    }
+                }
+            }
+
+            context.getCounter(ModelCacheCounter.HITS).increment(ModelCache.getHits() - cacheHitsAtSetup);
+            context.getCounter(ModelCacheCounter.MISSES).increment(ModelCache.getMisses() - cacheMissesAtSetup);
+            context.getCounter(ModelCacheCounter.IMPORT_MILLIS).increment(ModelCache.getImportMillis() - importMillisAtSetup);
+        }
 
         public void map(LongWritable offset, Text lineText, Context context) throws IOException, InterruptedException {
             
@@ -246,9 +409,6 @@ public class HDFSDriver extends Configured implements Tool {
             //check if maximization
             boolean isMax = conf.get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
             
-            //temporarily hard coded
-            final int ROOT_TIME_SLICE = 2;
-            final int INTERIOR_TIME_SLICE = 60;
             int timeSlice=INTERIOR_TIME_SLICE;
            
             //try to read the best known optimum
@@ -268,35 +428,34 @@ public class HDFSDriver extends Configured implements Tool {
             configClient.close();
            */
 
-            //the text of the original problem in the CPLEX root folder will contain this line
-            final String ORIGINAL_PROBLEM = "ORIGINAL_PROBLEM";
-
-            //this is the solver we will use to generate solutions and  new nodes
-            CPSolver solver = null;         
+            //the best known optimum as of the start of this iteration, if any
+            double bestKnownOptimum = conf.getDouble(BEST_KNOWN_OPTIMUM, isMax? Solution.DOUBLE_MIN: Solution.DOUBLE_MAX);
 
             //read a line from the input file, and process it to create a solution object
             String line = lineText.toString();
-            boolean isThisRootProblem = ORIGINAL_PROBLEM.equalsIgnoreCase(line);
-            NodeAttachment nodeAttachment = isThisRootProblem? null: NodeAttachment.fromJSONString(line );
-            
-            if ( isThisRootProblem ) {
-                //root node , no attachment
-                solver=	new CPSolver(originalLP_Filename , null , isMax ); 	   
+            if ( isRootProblem(line) ) {
                 timeSlice = ROOT_TIME_SLICE;
-            } else{
-                //this is an interior node, we must pass in the node attachment
-                solver = new CPSolver(originalLP_Filename ,nodeAttachment , isMax );  	    	   
             }
-            
+
             //solve this only if parent LP relax is better than current optimum
-            if ( true ) {
+            //the driver removes such nodes before the job, this catches any that slip through
+            if ( !isDominated(line, bestKnownOptimum, isMax) ) {
                 
+                //this is the solver we will use to generate solutions and  new nodes
+                CPSolver solver = createSolver(line, originalLP_Filename, isMax);
+                solver.setIncumbentService(incumbentService);
+                solver.setMipStart(distributedIncumbent);
+                solver.setCarryBasis(conf.getBoolean(CARRY_BASIS, false));
+                solver.setThreads(conf.getInt(SOLVER_THREADS, 1));
+                solver.setDrainOnHalt(conf.getBoolean(DRAIN_ON_HALT, true));
+
                 //solve this node and receive any new nodes created in a list
                 List <NodeAttachment> newNodeList = new ArrayList <NodeAttachment>();
                 try {
 
-                    Solution subTreeSolution = solver.solve(newNodeList, timeSlice,   
-                            isMax? Solution.DOUBLE_MIN: Solution.DOUBLE_MAX );
+                    long solveStart = System.currentTimeMillis();
+                    Solution subTreeSolution = solver.solve(newNodeList, timeSlice, bestKnownOptimum );
+                    recordSolveTime(line, System.currentTimeMillis() - solveStart, context);
 
                     /*
                     //write the new nodes into the CPLEX directory using directory manager
@@ -308,15 +467,10 @@ public class HDFSDriver extends Configured implements Tool {
                             "_" +   context.getTaskAttemptID().toString();
                      */
 
-                    for (NodeAttachment attachment : newNodeList) {
-                        //the new CPLEX nodes must be emitted with the correct depth as key
-                        context.write(new Text(""+attachment.getDepth()), new Text(attachment.toJSONString() ));                    
-
-                        //dirManager.appendToFile(dirManager.getFolderName(depth), filename, attachment.toJSONString()+"\n");
-                    }
+                    emitNewNodes(newNodeList, solver, context);
 
-                    //emit the sub tree solution
-                    context.write(CONSTANT_KEY_STRING_SOLN, new Text(subTreeSolution.toJSONString()));     
+                    //keep the sub tree solution if it is the best in this task, it is emitted at cleanup
+                    offerSolution(subTreeSolution);
 
                     //inform the driver of map completion
                     //(new ConfigUpdater(ZOO_SERVER)).update(java.net.InetAddress.getLocalHost().getHostName() );
@@ -326,88 +480,251 @@ public class HDFSDriver extends Configured implements Tool {
                     logger.error(e);
                 } //end try catch
                 
+            } else {
+                context.getCounter(PruningCounter.SKIPPED_IN_MAPPER).increment(1);
             } //if LP relax is better
 
         }//end map method
+
+        protected void offerSolution(Solution solution) {
+            if (solution.getIsFeasibleOrOptimal() && ! bestSolutionInTask.isBetterThan(solution, isMaxInTask)) {
+                bestSolutionInTask = solution;
+            }
+        }
+
+        //the original problem is not an interior node, and is left out of the cost model
+        protected void recordSolveTime(String line, long millis, Context context) throws IOException {
+            if (isRootProblem(line)) return;
+            context.getCounter(SolveTimeCounter.SOLVE_MILLIS).increment(millis);
+            context.getCounter(SolveTimeCounter.WEIGHT_THOUSANDTHS).increment(
+                    Math.round(1000 * costModel.getWeight(NodeAttachmentWritable.fromText(line))));
+        }
+
+        static boolean isRootProblem(String line) {
+            return ORIGINAL_PROBLEM.equalsIgnoreCase(line);
+        }
+
+        //true if the parent LP bound of this node is no better than the best known optimum
+        //only the header of the node is read, the model is not needed
+        static boolean isDominated(String line, double bestKnownOptimum, boolean isMax) throws IOException {
+            return !isRootProblem(line) && !compareLPRelaxationToCurrentBest(
+                    NodeAttachmentWritable.fromText(line).getParentLPRelaxValue(), bestKnownOptimum, isMax);
+        }
+
+        //a solver for one line of the input file
+        //the incumbent in the distributed cache of the job, or null if the driver had none to send
+        static Solution readDistributedIncumbent() throws IOException {
+            File file = new File(INCUMBENT_LINK);
+            if (!file.exists()) return null;
+
+            BufferedReader br = new BufferedReader(new FileReader(file));
+            try {
+                return Solution.fromJSONString(br.readLine());
+            } finally {
+                br.close();
+            }
+        }
+
+        static CPSolver createSolver(String line, String originalLP_Filename, boolean isMax) throws IOException {
+            if ( isRootProblem(line) ) {
+                //root node , no attachment
+                return new CPSolver(originalLP_Filename , null , isMax );
+            } else{
+                //this is an interior node, in binary form
+                //it is decoded by the solver, once the model is imported
+                return CPSolver.fromEncodedNode(originalLP_Filename ,NodeAttachmentWritable.fromText(line).getBytes() , isMax );
+            }
+        }
+
+        protected void emitNewNodes(List<NodeAttachment> newNodeList, CPSolver solver, Context context) 
+                throws IOException, InterruptedException {
+            int numShards = Math.max(1, context.getNumReduceTasks());
+            for (NodeAttachment attachment : newNodeList) {
+                //the new CPLEX nodes must be emitted with the correct depth as key
+                int shard = (int) (newNodeCount ++ % numShards);
+                NodeAttachmentWritable node = NodeAttachmentWritable.fromNode(attachment, solver.getVariableDictionary());
+                context.write(SolverKeyWritable.forNode(attachment.getDepth(), shard, 
+                        attachment.getParentLPRElaxOptimumValue(), isMaxInTask),
+                        new SolverValueWritable(node));
+
+                double[] costs = shardCosts.get(attachment.getDepth());
+                if (costs == null) {
+                    costs = new double[numShards];
+                    shardCosts.put(attachment.getDepth(), costs);
+                }
+                costs[shard] += costModel.estimateSeconds(node);
+            }
+        }
         
     }//end Map class
 
-    public static class Reduce  extends Reducer<Text, Text, Text, Text> {
+    /**
+     * 
+     * Solves all the nodes of a map task, instead of treating every line as a separate problem.
+     * 
+     * The model is imported once per JVM (see ModelCache), and every node reuses the same warm IloCplex after
+     * resetting its bounds. The time budget of the task is shared among its nodes, and the best solution found
+     * so far in this task is used to prune the nodes solved after it. As with Map, only the best solution is emitted.
+     */
+    public static class BatchMap extends Map {
 
-        public void reduce(Text word, Iterable<Text> solutions, Context context)    throws IOException, InterruptedException {
+        //never give a node less than this, seconds
+        static final int MIN_TIME_SLICE = 1;
 
-            //we reduce solutions as well as new nodes
-            boolean isThisSolutionReduction = false;
+        public void run(Context context) throws IOException, InterruptedException {
 
-            //depth of emitted nodes being processed, in case we are processing new nodes
-            int depth = 0 ;
+            setup(context);
+            try {
+                Configuration conf = context.getConfiguration();
+                String originalLP_Filename  = conf.get(ORIGINAL_LP_FILE );
+                boolean isMax = conf.get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
+                long deadline = System.currentTimeMillis() + 
+                        1000L * conf.getInt(TASK_TIME_BUDGET, NUM_MAPS_PER_WORKER*INTERIOR_TIME_SLICE);
+
+                //read all the nodes of this task first, so that the time budget can be divided among them
+                List<String> lines = new ArrayList<String>();
+                while (context.nextKeyValue()) {
+                    lines.add(context.getCurrentValue().toString());
+                }
 
-            //check if this is a new node list, or solution
-            if (word.toString().equalsIgnoreCase(CONSTANT_KEY_STRING_SOLN.toString())) {
-                //this is the emitted solution
-                isThisSolutionReduction = true;  
-            } else {
-                //this is a list of new nodes
-                depth=Integer.parseInt(word.toString().trim());
-            }            
+                //start with the best known optimum from the driver, if any
+                double bestKnownOptimum = conf.getDouble(BEST_KNOWN_OPTIMUM, bestSolutionInTask.getOptimumValue());
 
-            //check if maximization
-            Configuration conf = context.getConfiguration();
-            boolean isMax = conf.get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
-            
-            //start with an invalid current solution in case we are reducing solutions
-            Solution bestSolutionInThisIteration = new Solution(isMax );
-
-            if (isThisSolutionReduction) {
-
-                //reduce to the best Solution found In This Iteration 
-                for (Text solnText : solutions) {	 
-                    Solution soln =  Solution.fromJSONString(solnText.toString());
-                    if ( soln.getIsFeasibleOrOptimal()) {
-                        if (! bestSolutionInThisIteration .isBetterThan(soln, isMax)) {
-                            //we have found a better solution
-                            bestSolutionInThisIteration= soln;		    		 
+                for (int index = 0; index < lines.size(); index ++) {
+
+                    String line = lines.get(index);
+                    if (isDominated(line, bestKnownOptimum, isMax)) {
+                        context.getCounter(PruningCounter.SKIPPED_IN_MAPPER).increment(1);
+                        continue;
+                    }
+                    long secondsLeft = (deadline - System.currentTimeMillis())/1000;
+                    int timeSlice = isRootProblem(line) ? ROOT_TIME_SLICE : 
+                            (int) Math.max(MIN_TIME_SLICE, secondsLeft/(lines.size() - index));
+
+                    CPSolver solver = createSolver(line, originalLP_Filename, isMax);
+                    solver.setIncumbentService(incumbentService);
+                    solver.setMipStart(distributedIncumbent);
+                    solver.setCarryBasis(conf.getBoolean(CARRY_BASIS, false));
+                    solver.setThreads(conf.getInt(SOLVER_THREADS, 1));
+                    solver.setDrainOnHalt(conf.getBoolean(DRAIN_ON_HALT, true));
+                    List <NodeAttachment> newNodeList = new ArrayList <NodeAttachment>();
+                    try {
+                        long solveStart = System.currentTimeMillis();
+                        Solution solution = solver.solve(newNodeList, timeSlice, bestKnownOptimum);
+                        recordSolveTime(line, System.currentTimeMillis() - solveStart, context);
+                        emitNewNodes(newNodeList, solver, context);
+
+                        if (solution.getIsFeasibleOrOptimal() && ! bestSolutionInTask.isBetterThan(solution, isMax)) {
+                            offerSolution(solution);
+                            bestKnownOptimum = solution.getOptimumValue();
                         }
+                    } catch (IloException e) {
+                        logger.error(e);
                     }
+                    context.progress();
                 }
 
-                context.write(word, new Text(bestSolutionInThisIteration.toJSONString()));
+            } finally {
+                //emits the best solution of this task
+                cleanup(context);
+            }
+        }
+
+    }//end BatchMap class
 
-            } else {
-                //write the new nodes into the correct folder
-                //
-                //we exploit the fact that 2 machines  do not both reduce nodes at the same depth
-                //
-                // the number of files per folder is constant , currently hard coded
-                // The newly generated nodes are randomly and evenly distributed among these files
+    public static class Reduce  extends Reducer<SolverKeyWritable, SolverValueWritable, Text, Text> {
 
+        //new nodes are written once, into files of their own under the output folder, and never appended to
+        private MultipleOutputs<Text, Text> newNodeOutputs;
 
-                //we initialize a map of new nodes, which will be appended into the respective files
-                java.util.Map<Integer, List<String>> newNodesMap =  new Hashtable<Integer, List<String>>();
-                for (int index =0; index < NUM_FILES_PER_FOLDER; index ++){
-                    newNodesMap.put(index, new ArrayList<String>());
-                }
+        //estimates the solve time of every new node, to balance the work of the files
+        private NodeCostModel costModel;
 
-                for (Text solnText : solutions) {	
-                    //add the solution to the map
-                    int random = (new Random()).nextInt(NUM_FILES_PER_FOLDER);
-                    newNodesMap.get(random).add(solnText.toString());
-                }
+        protected void setup(Context context) throws IOException, InterruptedException {
+            newNodeOutputs = new MultipleOutputs<Text, Text>(context);
+            costModel = new NodeCostModel(context.getConfiguration(), Map.INTERIOR_TIME_SLICE);
+        }
+
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            newNodeOutputs.close();
+        }
+
+        public void reduce(SolverKeyWritable key, Iterable<SolverValueWritable> solutions, Context context)    throws IOException, InterruptedException {
+
+            //depth of emitted nodes being processed, in case we are processing new nodes
+            long depth = key.getDepth() ;
 
-                //write the new nodes into the CPLEX directory using directory manager
-                IDirManager dirManager = new HdfsDirManager(); 
-                for (int index =0; index < NUM_FILES_PER_FOLDER; index ++){
-                    List<String> contentList = newNodesMap.get(index);
-                    if (contentList!=null && !contentList.isEmpty()){
-                        //append the content to the file
-                        dirManager.appendToFile(dirManager.getFolderName(depth), ""+index+".txt", contentList);
+            Configuration conf = context.getConfiguration();
+
+            //we reduce solutions as well as new nodes
+            if (key.isSolution()) {
+
+                //the solutions arrive best first, so the first one is the best Solution found In This Iteration
+                //it is passed on as is, none of the solutions are parsed
+                Iterator<SolverValueWritable> iterator = solutions.iterator();
+                context.write(CONSTANT_KEY_STRING_SOLN, (Text) iterator.next().get());
+
+            } else {
+                //write the new nodes of one shard of a depth into files for the correct folder
+                //
+                // the files are named after the iteration and the shard, and the output committer adds the 
+                // reducer number, so that no 2 reducers ever write the same file. The driver moves them into
+                // the directory.
+                //
+                // the number of files per folder is constant , currently hard coded, and shared among the shards
+                // The newly generated nodes arrive sorted by their parent LP bound, and are split into files of
+                // consecutive bounds, so that a file holds nodes of similar promise. The best bound of every file
+                // is recorded in the index of the directory, for best bound selection.
+                //
+                // Since one file is one map task, the files are cut by estimated solve time rather than by 
+                // number of nodes, so that the map tasks finish together. The mappers send the cost of the
+                // shard ahead of its nodes, so the nodes are written as they arrive and never held in memory.
+
+                int iteration = conf.getInt(ITERATION, 0);
+                int numShards = Math.max(1, context.getNumReduceTasks());
+                int filesPerShard = (NUM_FILES_PER_FOLDER + numShards - 1) / numShards;
+                double totalCost = 0;
+
+                int index = 0;
+                double fileCost = 0;
+                double fileBound = 0;
+                String baseOutputPath = null;
+                for (SolverValueWritable value : solutions) {
+                    if (value.get() instanceof DoubleWritable) {
+                        totalCost += ((DoubleWritable) value.get()).get();
+                        continue;
                     }
-                }	    
+                    NodeAttachmentWritable node = (NodeAttachmentWritable) value.get();
+                    double cost = costModel.estimateSeconds(node);
+                    double targetCost = totalCost / filesPerShard;
+
+                    if (baseOutputPath == null) {
+                        fileBound = node.getParentLPRelaxValue();
+                        baseOutputPath = NEW_NODES_DIR + "/" + depth + "/" + iteration + "_" + key.getShard() + "_" + index;
+                    } else if (fileCost + cost / 2 > targetCost && index < filesPerShard - 1) {
+                        //start the next file if this node takes the current one further past the target than short of it
+                        writeFileStats(baseOutputPath, fileBound, fileCost);
+                        index ++;
+                        fileCost = 0;
+                        fileBound = node.getParentLPRelaxValue();
+                        baseOutputPath = NEW_NODES_DIR + "/" + depth + "/" + iteration + "_" + key.getShard() + "_" + index;
+                    }
+                    //no key, the file holds one node per line
+                    newNodeOutputs.write((Text) null, new Text(node.toText()), baseOutputPath);
+                    fileCost += cost;
+                }
+                if (baseOutputPath != null) writeFileStats(baseOutputPath, fileBound, fileCost);
 
             }//end if reduction then else  	
 
         }//end function reduce
 
+        private void writeFileStats(String baseOutputPath, double bestBound, double estimatedCost) 
+                throws IOException, InterruptedException {
+            newNodeOutputs.write((Text) null, new Text(baseOutputPath + "\t" + bestBound + "\t" + estimatedCost), 
+                    FILE_STATS_DIR + "/part");
+        }
+
     }//end class Reduce
 
     private boolean localFileExists (String filename) {
@@ -415,27 +732,359 @@ public class HDFSDriver extends Configured implements Tool {
         return (f.exists() && !f.isDirectory());
     }
 
-    private  Solution getReducedSolution(Configuration conf) throws IOException{
+    //a submitted job, and what the driver must do once it is done
+    private static class IterationJob {
+        int iteration;
+        Job job;
+        Path outputDir;
+        List<NodeFile> inputFiles;
+        long nodesSkippedBeforeJob;
+        //estimated seconds of the largest split, see NodeInputFormat
+        double plannedMakespan;
+    }
+
+    //submit the job of one iteration, without waiting for it
+    private IterationJob submitIteration(int iterationCount, List<NodeFile> inputFiles, Solution currentBestSolution) 
+            throws IOException, InterruptedException, ClassNotFoundException {
+
+        Configuration conf = this.getConf();      	    
+        conf.setInt(ITERATION, iterationCount);
+        // Create map reduce job
+        Job job = Job.getInstance(conf, "DoopLex");
+        job.setJarByClass(this.getClass());
+
+        // Use NodeInputFormat to split the nodes of the input files among the maps by estimated cost
+        for (NodeFile inputFile : inputFiles) {
+            FileInputFormat.addInputPath(job, new Path( inputFile.getPath() ));
+        }
+        job.setInputFormatClass(NodeInputFormat.class);
+
+        //the variable values of the incumbent are the MIP start of every node
+        if (currentBestSolution.getIsFeasibleOrOptimal()) {
+            distributeIncumbent(job, iterationCount, currentBestSolution);
+        }
+
+        //every iteration has an output folder of its own, so that jobs can overlap
+        Path outputDir = new Path(OUTPUT_DIR, Integer.toString(iterationCount));
+        try{
+            // delete output folder , true for recursive	
+            fs.delete(outputDir, true); 	
+        } catch (IOException ioex) {
+            logger.error(ioex);
+        }
+
+        //set the output folder
+        FileOutputFormat.setOutputPath(job, outputDir);
+        //reducers that only write new nodes should not leave empty part files behind
+        LazyOutputFormat.setOutputFormatClass(job, TextOutputFormat.class);
+
+        job.setMapperClass(conf.getBoolean(BATCH_MAPPER, false) ? BatchMap.class : Map.class);    	    
+        job.setReducerClass(Reduce   .class);
+        //the best solution reaches the reducer first, and is the only one it needs to read
+        job.setSortComparatorClass(SolverKeyWritable.Comparator.class);
+        job.setGroupingComparatorClass(SolverKeyWritable.GroupComparator.class);
+        //the new nodes of a depth are spread over all the reducers
+        job.setPartitionerClass(SolverKeyPartitioner.class);
+        if (conf.get(MRJobConfig.NUM_REDUCES) == null) {
+            job.setNumReduceTasks(NUM_WORKERS);
+        }
+        //map output values are either solutions or new nodes in binary form
+        job.setMapOutputKeyClass(SolverKeyWritable.class);
+        job.setMapOutputValueClass(SolverValueWritable.class);
+        job.setOutputKeyClass(Text.class);
+        //note that the Solution we emit is the solution in JSON string format  
+        job.setOutputValueClass(Text.class);
+
+        //the splits are planned here, in the driver
+        job.submit();
+
+        IterationJob iteration = new IterationJob();
+        iteration.iteration = iterationCount;
+        iteration.job = job;
+        iteration.outputDir = outputDir;
+        iteration.inputFiles = inputFiles;
+        iteration.plannedMakespan = NodeInputFormat.getLastPlannedMakespan();
+        return iteration;
+    }
+
+    //the first of the running jobs to finish
+    //a single job is followed with its progress printed, as when jobs did not overlap
+    private static IterationJob waitForAnyJob(List<IterationJob> runningJobs) 
+            throws IOException, InterruptedException, ClassNotFoundException {
+        if (runningJobs.size() == 1) {
+            runningJobs.get(0).job.waitForCompletion(true);
+            return runningJobs.get(0);
+        }
+        while (true) {
+            for (IterationJob iteration : runningJobs) {
+                if (iteration.job.isComplete()) {
+                    return iteration;
+                }
+            }
+            Thread.sleep(JOB_POLL_MILLIS);
+        }
+    }
+
+    //replace the input files of a finished job by its new nodes, at once, and leave the harvesting of its
+    //solution and the cleanup of its output folder to the bookkeeper
+    private void finishIteration(final IterationJob iteration, IDirManager dirManager, ExecutorService bookkeeper,
+            List<Future<Solution>> harvests) throws IOException, InterruptedException {
+
+        Job job = iteration.job;
+        if (! job.isSuccessful()) {
+            logger.error("Map reduce job resulted in error");
+            System.exit(1);
+        }
+
+        long nodesSkippedInMappers = job.getCounters().findCounter(PruningCounter.SKIPPED_IN_MAPPER).getValue();
+        logger.info("Iteration " + iteration.iteration + " skipped " + iteration.nodesSkippedBeforeJob + 
+                " dominated nodes before the job, and " + nodesSkippedInMappers + " in the mappers");
+        calibrateCostModel(job, this.getConf());
+
+        //delete the files we just processed, we do not want to process them again
+        for (NodeFile inputFile : iteration.inputFiles) {
+            dirManager.deleteFile(inputFile.getPath());
+        }
+
+        //and replace them by the new nodes from the reducers
+        //the driver is the only writer of the directory, so the directory manager's index stays current
+        publishNewNodes(dirManager, iteration.outputDir);
+
+        harvests.add(bookkeeper.submit(new Callable<Solution>() {
+            public Solution call() throws Exception {
+                reportMakespan(iteration);
+                Solution solution = getReducedSolution(iteration.outputDir);
+                fs.delete(iteration.outputDir, true);
+                fs.delete(getIncumbentPath(iteration.iteration), false);
+                return solution;
+            }
+        }));
+    }
+
+    //take the better of the harvested solutions and the current best, waiting for every harvest if asked to
+    private Solution collectHarvests(List<Future<Solution>> harvests, Solution currentBestSolution, 
+            boolean isMaximization, boolean waitForAll) throws InterruptedException, ExecutionException {
+
+        for (Iterator<Future<Solution>> iterator = harvests.iterator(); iterator.hasNext(); ) {
+            Future<Solution> harvest = iterator.next();
+            if (! waitForAll && ! harvest.isDone()) continue;
+            iterator.remove();
+
+            Solution solnFromReduce = harvest.get();
+            //no reducer wrote a solution, we keep what we have
+            if (solnFromReduce == null) continue;
+            if (! currentBestSolution  .isBetterThan(solnFromReduce, isMaximization)){
+
+                //we have found a better optimum
+                currentBestSolution=solnFromReduce;
+
+                //its possible that both current and new solutions were infeasible
+                if (currentBestSolution.getIsFeasibleOrOptimal()){
+                    logger.info("the current best known optimum is ="+ currentBestSolution.getOptimumValue());
+                }    	else{
+                    logger.info("no optimum solution as of yet");
+                }
+            }
+        }
+
+        //set the current best solution into the configuration
+        this.getConf().set(BEST_KNOWN_OPTIMUM, (new Double( currentBestSolution.getOptimumValue())).toString());
+        return currentBestSolution;
+    }
+
+    //null if no reducer wrote a solution file
+    private static Solution getReducedSolution(Path outputDir) throws IOException{
 
         Path path = null;
         Solution result = null;
 
-        FileStatus[] statusAry = fs.listStatus(new Path(OUTPUT_DIR));
+        FileStatus[] statusAry = fs.listStatus(outputDir);
         for (FileStatus status : statusAry) {
-            if (status.isFile() && status.getBlockSize()>0) {
+            if (status.isFile() && status.getLen()>0) {
                 path = status.getPath();
             }    	        
         }
 
-        BufferedReader br=new BufferedReader(new InputStreamReader(fs.open(path)));
-        String line = br.readLine();
+        if (path == null) {
+            logger.error("no solution was found in " + outputDir);
+            return null;
+        }
 
-        result = Solution.fromJSONString(line.split(CONSTANT_KEY_STRING_SOLN.toString())[1].trim());
+        BufferedReader br=new BufferedReader(new InputStreamReader(fs.open(path)));
+        try {
+            String line = br.readLine();
+            result = Solution.fromJSONString(line.split(CONSTANT_KEY_STRING_SOLN.toString())[1].trim());
+        } finally {
+            br.close();
+        }
 
         return result;
 
     }
     
+    //the incumbent file of an iteration, it must not change while the job runs
+    private static Path getIncumbentPath(int iteration) {
+        return new Path(INCUMBENT_DIR, iteration + ".json");
+    }
+
+    //write the incumbent file of the job, and add it to the distributed cache of the job, linked as INCUMBENT_LINK
+    private static void distributeIncumbent(Job job, int iteration, Solution solution) throws IOException {
+        Path incumbentPath = getIncumbentPath(iteration);
+        FSDataOutputStream out = fs.create(incumbentPath, true);
+        out.write(solution.toJSONString().getBytes("UTF-8"));
+        out.close();
+        try {
+            job.addCacheFile(new URI(fs.makeQualified(incumbentPath).toUri().toString() + "#" + INCUMBENT_LINK));
+        } catch (URISyntaxException e) {
+            logger.error(e);
+        }
+    }
+
+    //the incumbent service chosen with -D incumbentservice, or null for none
+    //every problem file has a channel of its own
+    static IncumbentService createIncumbentService(Configuration conf, boolean isMax) throws IOException {
+        String type = conf.get(INCUMBENT_SERVICE, "none");
+        String channel = new File(conf.get(ORIGINAL_LP_FILE)).getName();
+        if ("loopback".equalsIgnoreCase(type)) {
+            return new LoopbackIncumbentService(channel, isMax);
+        } else if ("zookeeper".equalsIgnoreCase(type)) {
+            return new ZooKeeperIncumbentService(conf.get(ZOOKEEPER, ZOO_SERVER), channel, isMax);
+        }
+        return null;
+    }
+
+    private static void resetIncumbentService(Configuration conf, boolean isMax) throws IOException {
+        IncumbentService incumbentService = createIncumbentService(conf, isMax);
+        if (incumbentService instanceof ZooKeeperIncumbentService) {
+            ((ZooKeeperIncumbentService) incumbentService).reset();
+        } else if (incumbentService instanceof LoopbackIncumbentService) {
+            LoopbackIncumbentService.reset(new File(conf.get(ORIGINAL_LP_FILE)).getName());
+        }
+        if (incumbentService != null) {
+            incumbentService.close();
+        }
+    }
+
+    //move the files of new nodes written by the reducers into the directory, with the bound and cost the
+    //reducers recorded for them
+    private void publishNewNodes(IDirManager dirManager, Path outputDir) throws IOException {
+
+        Path newNodesDir = new Path(outputDir, NEW_NODES_DIR);
+        if (!fs.exists(newNodesDir)) return;
+
+        java.util.Map<String, String[]> fileStats = readFileStats(outputDir);
+
+        for (FileStatus depthStatus : fs.listStatus(newNodesDir)) {
+            long depth = Long.parseLong(depthStatus.getPath().getName());
+            for (FileStatus status : fs.listStatus(depthStatus.getPath())) {
+                if (!status.isFile() || status.getLen() == 0) continue;
+
+                //the output committer appended the reducer number to the base output path
+                String baseOutputPath = NEW_NODES_DIR + "/" + depth + "/" + 
+                        status.getPath().getName().replaceFirst("-r-\\d+$", "");
+                String[] stats = fileStats.get(baseOutputPath);
+                if (stats == null) {
+                    logger.error("No bound recorded for " + status.getPath() + ", it is left in " + newNodesDir);
+                    continue;
+                }
+
+                dirManager.moveToFolder(status.getPath().toString(), dirManager.getFolderName(depth), 
+                        Double.parseDouble(stats[1]), Double.parseDouble(stats[2]));
+            }
+        }
+    }
+
+    //the lines written by Reduce.writeFileStats, by base output path
+    private java.util.Map<String, String[]> readFileStats(Path outputDir) throws IOException {
+
+        java.util.Map<String, String[]> fileStats = new Hashtable<String, String[]>();
+        Path statsDir = new Path(outputDir, FILE_STATS_DIR);
+        if (!fs.exists(statsDir)) return fileStats;
+
+        for (FileStatus status : fs.listStatus(statsDir)) {
+            if (!status.isFile()) continue;
+            BufferedReader br=new BufferedReader(new InputStreamReader(fs.open(status.getPath())));
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+                fileStats.put(fields[0], fields);
+            }
+            br.close();
+        }
+        return fileStats;
+    }
+
+    //the longest map task, as estimated when the splits were planned and as it ran
+    private static void reportMakespan(IterationJob iteration) throws IOException, InterruptedException {
+
+        long actualMillis = 0;
+        for (TaskReport report : iteration.job.getTaskReports(TaskType.MAP)) {
+            actualMillis = Math.max(actualMillis, report.getFinishTime() - report.getStartTime());
+        }
+
+        logger.info("Iteration " + iteration.iteration + " map makespan, predicted " + iteration.plannedMakespan + 
+                " seconds, actual " + actualMillis/1000.0 + " seconds");
+    }
+
+    //pass on the measured seconds per unit of weight to the next iteration
+    private void calibrateCostModel(Job job, Configuration conf) throws IOException {
+
+        long solveMillis = job.getCounters().findCounter(SolveTimeCounter.SOLVE_MILLIS).getValue();
+        long weightThousandths = job.getCounters().findCounter(SolveTimeCounter.WEIGHT_THOUSANDTHS).getValue();
+        if (weightThousandths > 0) {
+            conf.setDouble(NodeCostModel.SECONDS_PER_WEIGHT, (double) solveMillis / weightThousandths);
+        }
+    }
+
+    /**
+     * 
+     * Remove the nodes in inputFiles whose parent LP bound is no better than the incumbent, and return how many
+     * were removed from files which still hold some nodes. Files left without nodes are removed from inputFiles.
+     * 
+     * A file whose best bound is dominated is deleted without being read, so its nodes are not counted.
+     */
+    static long pruneDominatedNodes(IDirManager dirManager, List<NodeFile> inputFiles, Solution incumbent, 
+            boolean isMax) throws IOException {
+
+        long skipped = 0;
+        if (!incumbent.getIsFeasibleOrOptimal()) return skipped;
+        double currentBest = incumbent.getOptimumValue();
+
+        for (Iterator<NodeFile> iterator = inputFiles.iterator(); iterator.hasNext(); ) {
+            NodeFile file = iterator.next();
+            //files without a bound hold the original problem
+            if (!file.hasBound()) continue;
+
+            if (!compareLPRelaxationToCurrentBest(file.getBestBound(), currentBest, isMax)) {
+                logger.info("Deleting " + file + ", its best bound is dominated");
+                dirManager.deleteFile(file.getPath());
+                iterator.remove();
+                continue;
+            }
+
+            List<String> lines = dirManager.readFile(file.getPath());
+            List<String> keptLines = new ArrayList<String>();
+            for (String line : lines) {
+                if (compareLPRelaxationToCurrentBest(NodeAttachmentWritable.fromText(line).getParentLPRelaxValue(), 
+                        currentBest, isMax)) {
+                    keptLines.add(line);
+                }
+            }
+            if (keptLines.size() < lines.size()) {
+                //rewrite the file with the nodes we kept, its best bound is unchanged
+                //so is its cost, near enough, since the cost model gives dominated nodes next to no weight
+                skipped += lines.size() - keptLines.size();
+                if (!dirManager.replaceFile(file.getPath(), keptLines, file.getBestBound(), file.getEstimatedCost())) {
+                    //the file may be gone, leave it to a later iteration
+                    logger.error("Unable to rewrite " + file + ", it is not solved in this iteration");
+                    iterator.remove();
+                }
+            }
+        }
+
+        return skipped;
+    }
+
     //return true if node is worthy of solving
     private static boolean compareLPRelaxationToCurrentBest (double lpRelax, double currentBest, boolean isMax) {
         return isMax? (lpRelax>currentBest) : (lpRelax<currentBest) ;
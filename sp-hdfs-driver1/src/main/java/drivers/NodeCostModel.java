@@ -0,0 +1,64 @@
+package drivers;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+
+import hadoopTypes.NodeAttachmentWritable;
+import solverTypes.Solution;
+
+/**
+ *
+ * @author tamvadss
+ * Estimates the seconds of solver time a new node will take, so that the nodes can be packed into files
+ * of equal work, one file being one map task.
+ *
+ * Every node gets a weight in [0, 1] from how much of the problem is still open : nodes with many branching
+ * bounds, and nodes whose parent LP bound is close to the incumbent, tend to be finished or pruned sooner.
+ * Nodes that the incumbent already dominates weigh nothing, the mappers skip them.
+ * The mappers add up the weights and the measured solve times of the nodes they solve, and the driver passes
+ * the seconds per unit of weight on to the next iteration. No node costs more than the time slice it is given.
+ */
+public class NodeCostModel {
+
+    //measured seconds of solver time per unit of weight, set by the driver after every iteration
+    static final String SECONDS_PER_WEIGHT = "secondsperweight";
+
+    //a node with n branching bounds weighs 1 / (1 + BOUND_DISCOUNT * n), before the incumbent is considered
+    static final double BOUND_DISCOUNT = 0.05;
+
+    //a node whose parent LP bound is this far from the incumbent, relative to the incumbent, is at full cost
+    static final double FULL_COST_GAP = 0.1;
+
+    private final double secondsPerWeight;
+    private final double timeSlice;
+    private final boolean isMaximization;
+    private final boolean hasIncumbent;
+    private final double incumbent;
+
+    public NodeCostModel(Configuration conf, double timeSlice) {
+        this.timeSlice = timeSlice;
+        isMaximization = conf.get(HDFSDriver.IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
+        //until something has been measured, assume a node of full weight uses its whole time slice
+        secondsPerWeight = conf.getDouble(SECONDS_PER_WEIGHT, timeSlice);
+        incumbent = conf.getDouble(HDFSDriver.BEST_KNOWN_OPTIMUM, isMaximization ? Solution.DOUBLE_MIN : Solution.DOUBLE_MAX);
+        hasIncumbent = Math.abs(incumbent) < Solution.DOUBLE_MAX;
+    }
+
+    public double estimateSeconds(NodeAttachmentWritable node) throws IOException {
+        return Math.min(timeSlice, secondsPerWeight * getWeight(node));
+    }
+
+    public double getWeight(NodeAttachmentWritable node) throws IOException {
+
+        double weight = 1.0 / (1.0 + BOUND_DISCOUNT * node.getBoundCount());
+
+        if (hasIncumbent) {
+            double gap = isMaximization ? node.getParentLPRelaxValue() - incumbent : incumbent - node.getParentLPRelaxValue();
+            weight *= Math.min(1.0, Math.max(0, gap) / (FULL_COST_GAP * Math.max(1.0, Math.abs(incumbent))));
+        }
+
+        return weight;
+    }
+
+}
@@ -0,0 +1,223 @@
+package drivers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Cluster;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
+import org.apache.hadoop.util.LineReader;
+import org.apache.log4j.Logger;
+
+import hadoopTypes.NodeAttachmentWritable;
+
+/**
+ *
+ * @author tamvadss
+ * Input format for the files of nodes in the solver directory, one node per line.
+ *
+ * Splits are sized by the estimated solve time of their nodes (see NodeCostModel), not by bytes, and may
+ * take lines from several files, so that the work of a map task does not depend on how the nodes happen
+ * to be laid out in files. There is one split per map slot of the cluster, unless set with -D nodesplits.
+ */
+public class NodeInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+
+    private static final Logger logger = Logger.getLogger(NodeInputFormat.class);
+
+    public static final String NUM_SPLITS = "nodesplits";
+
+    //the estimated seconds of the largest split of the last job planned in this JVM
+    //getSplits runs in the driver when the job is submitted
+    private static volatile double lastPlannedMakespan = 0;
+
+    public static double getLastPlannedMakespan() {
+        return lastPlannedMakespan;
+    }
+
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+
+        Configuration conf = job.getConfiguration();
+        NodeCostModel costModel = new NodeCostModel(conf, HDFSDriver.Map.INTERIOR_TIME_SLICE);
+
+        //estimate the cost of every line first, to know how much goes into one split
+        List<FileStatus> files = listStatus(job);
+        List<FileLines> fileLines = new ArrayList<FileLines>();
+        double totalCost = 0;
+        for (FileStatus file : files) {
+            FileLines lines = new FileLines(file.getPath(), conf, costModel);
+            fileLines.add(lines);
+            for (double cost : lines.costs) {
+                totalCost += cost;
+            }
+        }
+
+        int numSplits = conf.getInt(NUM_SPLITS, 0);
+        if (numSplits <= 0) {
+            numSplits = getClusterMapCapacity(conf);
+        }
+        double targetCost = totalCost / numSplits;
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        SplitBuilder split = new SplitBuilder();
+        lastPlannedMakespan = 0;
+        for (FileLines lines : fileLines) {
+
+            Path path = lines.path;
+            long chunkStart = 0;
+            long position = 0;
+            for (int index = 0; index < lines.costs.length; index ++) {
+                double cost = lines.costs[index];
+                position += lines.lengths[index];
+                split.cost += cost;
+                //close the split once it is within half a line of the target
+                if (split.cost + cost / 2 >= targetCost && splits.size() < numSplits - 1) {
+                    split.addChunk(path, chunkStart, position - chunkStart);
+                    splits.add(split.build());
+                    lastPlannedMakespan = Math.max(lastPlannedMakespan, split.cost);
+                    split = new SplitBuilder();
+                    chunkStart = position;
+                }
+            }
+
+            if (position > chunkStart) {
+                split.addChunk(path, chunkStart, position - chunkStart);
+            }
+        }
+        if (!split.paths.isEmpty()) {
+            splits.add(split.build());
+            lastPlannedMakespan = Math.max(lastPlannedMakespan, split.cost);
+        }
+
+        logger.info("Planned " + splits.size() + " splits of nodes from " + files.size() +
+                " files, the largest estimated at " + lastPlannedMakespan + " seconds");
+        return splits;
+    }
+
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<LongWritable, Text>((CombineFileSplit) split, context, ChunkReader.class);
+    }
+
+    //the length in bytes, with the line end, and the estimated seconds of every line of a file
+    private static class FileLines {
+
+        final Path path;
+        final long[] lengths;
+        final double[] costs;
+
+        FileLines(Path path, Configuration conf, NodeCostModel costModel) throws IOException {
+
+            List<Integer> lengthList = new ArrayList<Integer>();
+            List<Double> costList = new ArrayList<Double>();
+            LineReader reader = new LineReader(path.getFileSystem(conf).open(path), conf);
+            Text line = new Text();
+            int length;
+            while ((length = reader.readLine(line)) > 0) {
+                String text = line.toString();
+                lengthList.add(length);
+                costList.add(HDFSDriver.Map.isRootProblem(text) ? HDFSDriver.Map.ROOT_TIME_SLICE :
+                    costModel.estimateSeconds(NodeAttachmentWritable.fromText(text)));
+            }
+            reader.close();
+
+            this.path = path;
+            lengths = new long[lengthList.size()];
+            costs = new double[costList.size()];
+            for (int index = 0; index < lengths.length; index ++) {
+                lengths[index] = lengthList.get(index);
+                costs[index] = costList.get(index);
+            }
+        }
+    }
+
+    //the number of map tasks the cluster can run at once, or the old hard coded count if it cannot be asked
+    private static int getClusterMapCapacity(Configuration conf) {
+        int capacity = 0;
+        try {
+            Cluster cluster = new Cluster(conf);
+            capacity = cluster.getClusterStatus().getMapSlotCapacity();
+            cluster.close();
+        } catch (Exception e) {
+            logger.error(e);
+        }
+        return capacity > 0 ? capacity : HDFSDriver.NUM_FILES_PER_FOLDER;
+    }
+
+    //the line ranges of one split, possibly from several files
+    private static class SplitBuilder {
+
+        final List<Path> paths = new ArrayList<Path>();
+        final List<Long> starts = new ArrayList<Long>();
+        final List<Long> lengths = new ArrayList<Long>();
+        double cost = 0;
+
+        //the lines in [start, start + length) of the file
+        //LineRecordReader skips the first line of a range not at the start of the file, and reads one line past
+        //its end, so the range handed to it is shifted back by 1 byte, as in NLineInputFormat
+        void addChunk(Path path, long start, long length) {
+            paths.add(path);
+            starts.add(start == 0 ? 0 : start - 1);
+            lengths.add(start == 0 ? length - 1 : length);
+        }
+
+        CombineFileSplit build() {
+            Path[] pathArray = paths.toArray(new Path[paths.size()]);
+            long[] startArray = new long[starts.size()];
+            long[] lengthArray = new long[lengths.size()];
+            for (int index = 0; index < startArray.length; index ++) {
+                startArray[index] = starts.get(index);
+                lengthArray[index] = lengths.get(index);
+            }
+            return new CombineFileSplit(pathArray, startArray, lengthArray, new String[0]);
+        }
+    }
+
+    //reads the lines of one range of a CombineFileSplit
+    public static class ChunkReader extends RecordReader<LongWritable, Text> {
+
+        private final LineRecordReader lineReader = new LineRecordReader();
+        private final FileSplit chunk;
+
+        public ChunkReader(CombineFileSplit split, TaskAttemptContext context, Integer index) {
+            chunk = new FileSplit(split.getPath(index), split.getOffset(index), split.getLength(index), new String[0]);
+        }
+
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
+            lineReader.initialize(chunk, context);
+        }
+
+        public boolean nextKeyValue() throws IOException {
+            return lineReader.nextKeyValue();
+        }
+
+        public LongWritable getCurrentKey() {
+            return lineReader.getCurrentKey();
+        }
+
+        public Text getCurrentValue() {
+            return lineReader.getCurrentValue();
+        }
+
+        public float getProgress() throws IOException {
+            return lineReader.getProgress();
+        }
+
+        public void close() throws IOException {
+            lineReader.close();
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package drivers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import dirmanagers.IDirManager;
+import dirmanagers.NodeFile;
+import solverTypes.Solution;
+
+/**
+ *
+ * @author tamvadss
+ * Decides which files of nodes in the directory are solved in the next iteration.
+ *
+ * Choose with -D selection=bfs|dfs|bestbound|hybrid, bfs is the default.
+ * The choice is then packed with files from other folders, up to -D packcost seconds of estimated solve time,
+ * see Packing. -D packcost=0 turns packing off.
+ */
+public abstract class NodeSelectionPolicy {
+
+    public static final String SELECTION_POLICY = "selection";
+    public static final String PACK_COST = "packcost";
+
+    //the files to solve next, an empty list if the directory is empty
+    public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent)
+            throws IOException {
+        return select(dirManager, isMaximization, incumbent, Collections.<String>emptySet());
+    }
+
+    //the files to solve next, leaving out the files claimed by jobs still running
+    //an empty list if every file in the directory is claimed
+    public abstract List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+            Set<String> claimedPaths) throws IOException;
+
+    public static NodeSelectionPolicy forName(String name, int maxFiles) {
+        if ("dfs".equalsIgnoreCase(name)) {
+            return new DepthFirst();
+        } else if ("bestbound".equalsIgnoreCase(name)) {
+            return new BestBound(maxFiles);
+        } else if ("hybrid".equalsIgnoreCase(name)) {
+            return new Hybrid(maxFiles);
+        }
+        return new BreadthFirst();
+    }
+
+    //every unclaimed file in the shallowest folder that has any
+    public static class BreadthFirst extends NodeSelectionPolicy {
+        public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+                Set<String> claimedPaths) throws IOException {
+            long first = dirManager.getFirstNonEmptyFolder();
+            long last = dirManager.getLastNonEmptyFolder();
+            for (long depth = first; depth >= 0 && depth <= last; depth ++) {
+                List<NodeFile> files = getUnclaimedFiles(dirManager, depth, isMaximization, claimedPaths);
+                if (!files.isEmpty()) return files;
+            }
+            return new ArrayList<NodeFile>();
+        }
+    }
+
+    //every unclaimed file in the deepest folder that has any
+    public static class DepthFirst extends NodeSelectionPolicy {
+        public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+                Set<String> claimedPaths) throws IOException {
+            long first = dirManager.getFirstNonEmptyFolder();
+            long last = dirManager.getLastNonEmptyFolder();
+            for (long depth = last; depth >= 0 && depth >= first; depth --) {
+                List<NodeFile> files = getUnclaimedFiles(dirManager, depth, isMaximization, claimedPaths);
+                if (!files.isEmpty()) return files;
+            }
+            return new ArrayList<NodeFile>();
+        }
+    }
+
+    //the files with the best parent LP bounds, from any folder
+    public static class BestBound extends NodeSelectionPolicy {
+
+        private final int maxFiles;
+
+        public BestBound(int maxFiles) {
+            this.maxFiles = maxFiles;
+        }
+
+        public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+                Set<String> claimedPaths) throws IOException {
+            List<NodeFile> files = new ArrayList<NodeFile>();
+            for (NodeFile file : dirManager.getFilesOrderedByBound(isMaximization)) {
+                if (files.size() == maxFiles) break;
+                if (!claimedPaths.contains(file.getPath())) files.add(file);
+            }
+            return files;
+        }
+    }
+
+    //dive until there is an incumbent, so that there is something to prune with, then best bound
+    public static class Hybrid extends NodeSelectionPolicy {
+
+        private final NodeSelectionPolicy beforeIncumbent = new DepthFirst();
+        private final NodeSelectionPolicy afterIncumbent;
+
+        public Hybrid(int maxFiles) {
+            afterIncumbent = new BestBound(maxFiles);
+        }
+
+        public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+                Set<String> claimedPaths) throws IOException {
+            return incumbent.getIsFeasibleOrOptimal() ?
+                    afterIncumbent.select(dirManager, isMaximization, incumbent, claimedPaths) :
+                    beforeIncumbent.select(dirManager, isMaximization, incumbent, claimedPaths);
+        }
+    }
+
+    //tops up the files chosen by another policy with files from other folders, until the estimated seconds to
+    //solve them all reach the target, so that an iteration on a small folder still keeps every map slot busy
+    //
+    //folders are taken from the deep and the shallow end of the tree in turn. Deep nodes tend to close their
+    //subtrees, while shallow nodes tend to branch, so shallow folders may fill only SHALLOW_SHARE of the target,
+    //and the rest comes from deep folders, to keep the frontier from growing too fast
+    public static class Packing extends NodeSelectionPolicy {
+
+        static final double SHALLOW_SHARE = 0.5;
+
+        private final NodeSelectionPolicy firstChoice;
+        private final double targetCost;
+
+        public Packing(NodeSelectionPolicy firstChoice, double targetCost) {
+            this.firstChoice = firstChoice;
+            this.targetCost = targetCost;
+        }
+
+        public List<NodeFile> select(IDirManager dirManager, boolean isMaximization, Solution incumbent,
+                Set<String> claimedPaths) throws IOException {
+
+            List<NodeFile> files = firstChoice.select(dirManager, isMaximization, incumbent, claimedPaths);
+            if (files.isEmpty()) return files;
+
+            Set<String> takenPaths = new HashSet<String>(claimedPaths);
+            double cost = 0;
+            for (NodeFile file : files) {
+                takenPaths.add(file.getPath());
+                cost += getCost(file);
+            }
+
+            long shallow = dirManager.getFirstNonEmptyFolder();
+            long deep = dirManager.getLastNonEmptyFolder();
+            double shallowCost = 0;
+            boolean isDeepTurn = true;
+            while (cost < targetCost && shallow >= 0 && shallow <= deep) {
+
+                boolean isShallow = !isDeepTurn && shallowCost < SHALLOW_SHARE * targetCost;
+                long depth = isShallow ? shallow ++ : deep --;
+                isDeepTurn = !isDeepTurn;
+
+                for (NodeFile file : getUnclaimedFiles(dirManager, depth, isMaximization, takenPaths)) {
+                    if (cost >= targetCost) break;
+                    files.add(file);
+                    takenPaths.add(file.getPath());
+                    cost += getCost(file);
+                    if (isShallow) shallowCost += getCost(file);
+                }
+            }
+
+            return files;
+        }
+
+        //files written before their cost was recorded, such as the original problem, count as a full time slice
+        private static double getCost(NodeFile file) {
+            return file.getEstimatedCost() > 0 ? file.getEstimatedCost() : HDFSDriver.Map.INTERIOR_TIME_SLICE;
+        }
+    }
+
+    private static List<NodeFile> getUnclaimedFiles(IDirManager dirManager, long depth, boolean isMaximization,
+            Set<String> claimedPaths) throws IOException {
+        List<NodeFile> files = new ArrayList<NodeFile>();
+        for (NodeFile file : dirManager.getFiles(depth, isMaximization)) {
+            if (!claimedPaths.contains(file.getPath())) files.add(file);
+        }
+        return files;
+    }
+
+}
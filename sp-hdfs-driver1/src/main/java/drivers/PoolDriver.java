@@ -0,0 +1,280 @@
+package drivers;
+
+import static drivers.HDFSDriver.IS_MAXIMIZATION;
+import static drivers.HDFSDriver.ORIGINAL_LP_FILE;
+
+import hadoopTypes.NodeAttachmentWritable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import dirmanagers.HdfsDirManager;
+import dirmanagers.IDirManager;
+import solverTypes.NodeAttachment;
+import solverTypes.Solution;
+import solvers.CPSolver;
+import solvers.IncumbentService;
+import solvers.LoopbackIncumbentService;
+import solvers.ModelCache;
+
+/**
+ *
+ * @author tamvadss
+ * Solves the problem with a pool of long running solver threads in this JVM, instead of one MapReduce job
+ * per iteration.
+ *
+ * The nodes in the directory are read once at start. From then on, every worker takes the next node from
+ * a shared frontier, solves it for a time slice, and puts the new nodes back into the frontier. There are
+ * no barriers between iterations, and nodes are passed between workers without being written to HDFS.
+ * Nodes still in the frontier when the time limit is reached are written back into the directory, so
+ * that either engine can carry on from there.
+ *
+ * -D lpfile and -D ismax are the same as for HDFSDriver. -D poolworkers sets the number of workers,
+ * and -D pooltimelimit the time limit in seconds. Every worker gives CPLEX an equal share of the cores.
+ */
+public class PoolDriver extends Configured implements Tool {
+
+    private static final Logger logger = Logger.getLogger(PoolDriver.class);
+
+    public static final String NUM_WORKERS = "poolworkers";
+    public static final String TIME_LIMIT = "pooltimelimit";
+
+    static final int DEFAULT_TIME_LIMIT = 3600;
+
+    //how long an idle worker waits for new nodes before checking if we are done, milliseconds
+    static final int POLL_INTERVAL = 100;
+
+    //unsolved nodes are written back into this file of their folder
+    static final String POOL_FILENAME = "pool.txt";
+
+    //the workers of this pool share incumbents on this channel
+    static final String POOL_CHANNEL = "pool";
+
+    //the frontier of unsolved nodes
+    //new nodes are pushed to the front, so that the workers dive into the tree
+    private final LinkedBlockingDeque<PendingNode> frontier = new LinkedBlockingDeque<PendingNode>();
+
+    //nodes in the frontier plus nodes being solved, we are done when this is 0
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private Solution currentBestSolution;
+
+    //lets a worker prune against the incumbents of the other workers while it is solving
+    private IncumbentService incumbentService;
+    private boolean isMaximization;
+    private String originalLP_Filename;
+    private long deadline;
+    //whether new nodes keep the LP basis of their parent, they never leave this JVM so it costs no I/O
+    //the solvers then solve their open nodes once more at the end of a time slice, instead of draining them
+    private boolean carryBasis;
+    //CPLEX threads of every solve
+    private int threadsPerWorker;
+
+    //a node is either a line read from the directory, or a node created by one of our workers
+    private static class PendingNode {
+        String line;
+        long depth;
+        NodeAttachment attachment;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = new Configuration();
+        int res = ToolRunner.run(conf, new PoolDriver(), args);
+        System.exit(res);
+    }
+
+    public int run(String[] args) throws Exception {
+
+        Date startTime = new Date();
+        Configuration conf = this.getConf();
+
+        isMaximization = conf.get(IS_MAXIMIZATION).equalsIgnoreCase("TRUE");
+        originalLP_Filename = conf.get(ORIGINAL_LP_FILE);
+        carryBasis = conf.getBoolean(HDFSDriver.CARRY_BASIS, true);
+        currentBestSolution = new Solution(isMaximization);
+        LoopbackIncumbentService.reset(POOL_CHANNEL);
+        incumbentService = new LoopbackIncumbentService(POOL_CHANNEL, isMaximization);
+
+        if (! new File(originalLP_Filename).isFile()) {
+            logger.error("Unable to find lp file " + originalLP_Filename);
+            return 1;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int numWorkers = conf.getInt(NUM_WORKERS, cores);
+        threadsPerWorker = Math.max(1, cores / numWorkers);
+        deadline = System.currentTimeMillis() + 1000L * conf.getInt(TIME_LIMIT, DEFAULT_TIME_LIMIT);
+
+        //take every node out of the directory
+        IDirManager dirManager = new HdfsDirManager();
+        long numFolders = dirManager.getDirectoryCount();
+        for (long depth = 0; depth < numFolders; depth ++) {
+            String folder = dirManager.getFolderName(depth);
+            for (String line : dirManager.readFolder(folder)) {
+                PendingNode node = new PendingNode();
+                node.line = line;
+                node.depth = depth;
+                addToFrontier(node, false);
+            }
+            dirManager.clearFolder(folder);
+        }
+        logger.info("Read " + pendingCount.get() + " nodes from the directory, solving with " + numWorkers + " workers");
+
+        ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        for (int index = 0; index < numWorkers; index ++) {
+            workers.execute(new Runnable() {
+                public void run() {
+                    work();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        //anything left over goes back into the directory
+        writeFrontier(dirManager);
+
+        logger.info("Start time- " + startTime.toString());
+        logger.info("End time  - " + (new Date()).toString());
+        logger.info("The solution is as follows ->");
+        logger.info(getBestSolution().toString());
+
+        return 0;
+    }
+
+    public synchronized Solution getBestSolution() {
+        return currentBestSolution;
+    }
+
+    private synchronized void updateBestSolution(Solution solution) {
+        if (solution.getIsFeasibleOrOptimal() && ! currentBestSolution.isBetterThan(solution, isMaximization)) {
+            currentBestSolution = solution;
+            logger.info("the current best known optimum is ="+ currentBestSolution.getOptimumValue());
+        }
+    }
+
+    private void addToFrontier(PendingNode node, boolean isNewNode) {
+        pendingCount.incrementAndGet();
+        if (isNewNode) {
+            frontier.addFirst(node);
+        } else {
+            frontier.addLast(node);
+        }
+    }
+
+    //the loop of every worker thread
+    private void work() {
+
+        while (pendingCount.get() > 0 && System.currentTimeMillis() < deadline) {
+
+            PendingNode node = null;
+            try {
+                node = frontier.pollFirst(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                logger.error(e);
+                return;
+            }
+            if (node == null) {
+                //other workers are still solving, and may create new nodes
+                continue;
+            }
+
+            try {
+                solve(node);
+            } catch (Exception e) {
+                logger.error(e);
+            } finally {
+                //only now, after the new nodes are in the frontier
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void solve(PendingNode node) throws Exception {
+
+        CPSolver solver = null;
+        int timeSlice = HDFSDriver.Map.INTERIOR_TIME_SLICE;
+        if (node.attachment != null) {
+            solver = new CPSolver(originalLP_Filename, node.attachment, isMaximization);
+        } else {
+            solver = HDFSDriver.Map.createSolver(node.line, originalLP_Filename, isMaximization);
+            if (HDFSDriver.Map.isRootProblem(node.line)) {
+                timeSlice = HDFSDriver.Map.ROOT_TIME_SLICE;
+            }
+        }
+
+        solver.setIncumbentService(incumbentService);
+        solver.setMipStart(getBestSolution());
+        solver.setCarryBasis(carryBasis);
+        solver.setThreads(threadsPerWorker);
+
+        List <NodeAttachment> newNodeList = new ArrayList <NodeAttachment>();
+        Solution solution = solver.solve(newNodeList, timeSlice, getBestSolution().getOptimumValue());
+        updateBestSolution(solution);
+
+        for (NodeAttachment attachment : newNodeList) {
+            PendingNode newNode = new PendingNode();
+            newNode.attachment = attachment;
+            newNode.depth = attachment.getDepth();
+            addToFrontier(newNode, true);
+        }
+    }
+
+    //write unsolved nodes into the directory, in the same form as the reducer of HDFSDriver
+    private void writeFrontier(IDirManager dirManager) throws Exception {
+
+        if (frontier.isEmpty()) return;
+
+        java.util.Map<Long, List<String>> nodesByDepth = new Hashtable<Long, List<String>>();
+        java.util.Map<Long, Double> bestBoundByDepth = new Hashtable<Long, Double>();
+        for (PendingNode node : frontier) {
+            String folder = dirManager.getFolderName(node.depth);
+            if (node.attachment == null && HDFSDriver.Map.isRootProblem(node.line)) {
+                //the original problem has no bound
+                dirManager.appendToFile(folder, POOL_FILENAME, Arrays.asList(node.line));
+                continue;
+            }
+
+            String line = node.line;
+            double bound = 0;
+            if (node.attachment != null) {
+                //the model has been imported by whichever worker created this node
+                line = NodeAttachmentWritable.fromNode(node.attachment, 
+                        ModelCache.getVariableDictionary(originalLP_Filename)).toText();
+                bound = node.attachment.getParentLPRElaxOptimumValue();
+            } else {
+                bound = NodeAttachmentWritable.fromText(line).getParentLPRelaxValue();
+            }
+
+            if (!nodesByDepth.containsKey(node.depth)) {
+                nodesByDepth.put(node.depth, new ArrayList<String>());
+                bestBoundByDepth.put(node.depth, bound);
+            }
+            nodesByDepth.get(node.depth).add(line);
+            double bestBound = bestBoundByDepth.get(node.depth);
+            bestBoundByDepth.put(node.depth, isMaximization ? Math.max(bestBound, bound) : Math.min(bestBound, bound));
+        }
+
+        for (java.util.Map.Entry<Long, List<String>> entry : nodesByDepth.entrySet()) {
+            dirManager.appendToFile(dirManager.getFolderName(entry.getKey()), POOL_FILENAME, entry.getValue(), 
+                    bestBoundByDepth.get(entry.getKey()));
+        }
+        logger.info("Wrote " + frontier.size() + " unsolved nodes back into the directory");
+    }
+
+}
@@ -0,0 +1,164 @@
+package drivers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import solverTypes.Solution;
+import solvers.IncumbentService;
+
+/**
+ *
+ * @author tamvadss
+ * Shares the best known optimum among all the mappers of the cluster through a znode.
+ *
+ * The znode holds the objective value as text. Every service keeps a watch on it, so that reading the
+ * best known optimum is a local read, and an improvement reaches the other mappers as soon as ZooKeeper
+ * delivers the watch. Publishing is a compare and set on the version of the znode, so that a worse value
+ * never overwrites a better one.
+ *
+ * Errors are logged and otherwise ignored, a lost update only means less pruning.
+ */
+public class ZooKeeperIncumbentService implements IncumbentService, Watcher {
+
+    private static final Logger logger = Logger.getLogger(ZooKeeperIncumbentService.class);
+
+    static final String ROOT = "/dooplex";
+    static final int SESSION_TIMEOUT = 30000;
+
+    private final boolean isMaximization;
+    private final String path;
+    private final ZooKeeper zooKeeper;
+    private final CountDownLatch connected = new CountDownLatch(1);
+
+    private volatile double bestKnownOptimum;
+
+    public ZooKeeperIncumbentService(String connectString, String channel, boolean isMax) throws IOException {
+
+        isMaximization = isMax;
+        bestKnownOptimum = getWorstValue();
+        path = ROOT + "/" + channel.replaceAll("[^A-Za-z0-9_.-]", "_");
+
+        zooKeeper = new ZooKeeper(connectString, SESSION_TIMEOUT, this);
+        try {
+            if (!connected.await(SESSION_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                logger.error("Unable to connect to ZooKeeper at " + connectString);
+                return;
+            }
+            createIfAbsent(ROOT);
+            createIfAbsent(path);
+            readAndWatch();
+        } catch (InterruptedException e) {
+            logger.error(e);
+        } catch (KeeperException e) {
+            logger.error(e);
+        }
+    }
+
+    public void publish(double objectiveValue) {
+
+        if (!isBetter(objectiveValue, bestKnownOptimum)) return;
+        bestKnownOptimum = objectiveValue;
+
+        try {
+            while (true) {
+                Stat stat = new Stat();
+                double current = parse(zooKeeper.getData(path, false, stat));
+                if (!isBetter(objectiveValue, current)) return;
+                try {
+                    zooKeeper.setData(path, format(objectiveValue), stat.getVersion());
+                    return;
+                } catch (KeeperException.BadVersionException e) {
+                    //someone else published first, compare again
+                }
+            }
+        } catch (KeeperException e) {
+            logger.error(e);
+        } catch (InterruptedException e) {
+            logger.error(e);
+        }
+    }
+
+    public double getBestKnownOptimum() {
+        return bestKnownOptimum;
+    }
+
+    //forget the best known optimum, before solving a problem again
+    public void reset() {
+        try {
+            zooKeeper.setData(path, format(getWorstValue()), -1);
+            bestKnownOptimum = getWorstValue();
+        } catch (KeeperException e) {
+            logger.error(e);
+        } catch (InterruptedException e) {
+            logger.error(e);
+        }
+    }
+
+    public void close() {
+        try {
+            zooKeeper.close();
+        } catch (InterruptedException e) {
+            logger.error(e);
+        }
+    }
+
+    public void process(WatchedEvent event) {
+        if (event.getState() == Event.KeeperState.SyncConnected) {
+            connected.countDown();
+        }
+        if (event.getType() == Event.EventType.NodeDataChanged && path.equals(event.getPath())) {
+            try {
+                readAndWatch();
+            } catch (KeeperException e) {
+                logger.error(e);
+            } catch (InterruptedException e) {
+                logger.error(e);
+            }
+        }
+    }
+
+    //read the znode, and be told when it changes
+    private void readAndWatch() throws KeeperException, InterruptedException {
+        double value = parse(zooKeeper.getData(path, this, null));
+        if (isBetter(value, bestKnownOptimum)) {
+            bestKnownOptimum = value;
+        }
+    }
+
+    private void createIfAbsent(String znode) throws KeeperException, InterruptedException {
+        try {
+            zooKeeper.create(znode, format(getWorstValue()), ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT);
+        } catch (KeeperException.NodeExistsException e) {
+            //created by another mapper
+        }
+    }
+
+    private boolean isBetter(double value, double other) {
+        return isMaximization ? value > other : value < other;
+    }
+
+    private double getWorstValue() {
+        return isMaximization ? Solution.DOUBLE_MIN : Solution.DOUBLE_MAX;
+    }
+
+    private double parse(byte[] data) {
+        return data == null || data.length == 0 ? getWorstValue() : 
+            Double.parseDouble(new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] format(double value) {
+        return Double.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,84 @@
+package hadoopTypes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import solverTypes.NodeAttachment;
+import solverTypes.NodeAttachmentCodec;
+import solverTypes.VariableDictionary;
+
+/**
+ * 
+ * @author tamvadss
+ * A NodeAttachment in the binary format of NodeAttachmentCodec, usable as a map output or SequenceFile value.
+ * 
+ * The node is kept encoded. Only the mappers, which have the model and hence the VariableDictionary,
+ * ever need to decode it ; reducers just move the bytes around.
+ */
+public class NodeAttachmentWritable implements Writable {
+
+    private byte[] bytes = new byte[0];
+
+    public NodeAttachmentWritable() {
+    }
+
+    public NodeAttachmentWritable(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public static NodeAttachmentWritable fromNode(NodeAttachment node, VariableDictionary dictionary) throws IOException {
+        return new NodeAttachmentWritable(NodeAttachmentCodec.encode(node, dictionary));
+    }
+
+    public NodeAttachment toNode(VariableDictionary dictionary) throws IOException {
+        return NodeAttachmentCodec.decode(bytes, dictionary);
+    }
+
+    //the parent's LP relaxation value, read without decoding the node
+    public double getParentLPRelaxValue() throws IOException {
+        return NodeAttachmentCodec.readParentLPRelaxValue(bytes);
+    }
+
+    //the number of branching bounds of the node, read without decoding the node
+    public int getBoundCount() throws IOException {
+        return NodeAttachmentCodec.readBoundCount(bytes);
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    //text form, one node per line, for the text files in the solver directory
+    public String toText() {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    public static NodeAttachmentWritable fromText(String line) {
+        return new NodeAttachmentWritable(Base64.getDecoder().decode(line.trim()));
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        bytes = new byte[WritableUtils.readVInt(in)];
+        in.readFully(bytes);
+    }
+
+    public boolean equals(Object other) {
+        return other instanceof NodeAttachmentWritable && Arrays.equals(bytes, ((NodeAttachmentWritable) other).bytes);
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+}
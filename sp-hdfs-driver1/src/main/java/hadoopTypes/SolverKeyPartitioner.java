@@ -0,0 +1,21 @@
+package hadoopTypes;
+
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ *
+ * @author tamvadss
+ * Sends every solution to the first reducer, and the shards of a depth to different reducers.
+ *
+ * Mappers pick shards in [0, number of reducers), so a depth with enough nodes keeps every reducer busy.
+ * Consecutive depths start at different reducers, so that the same reducer is not always given the
+ * first shard, and the most nodes, as well as the solutions.
+ */
+public class SolverKeyPartitioner extends Partitioner<SolverKeyWritable, SolverValueWritable> {
+
+    public int getPartition(SolverKeyWritable key, SolverValueWritable value, int numPartitions) {
+        if (key.isSolution()) return 0;
+        return (int) ((key.getShard() + key.getDepth()) % numPartitions);
+    }
+
+}
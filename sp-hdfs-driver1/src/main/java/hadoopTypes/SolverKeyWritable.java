@@ -0,0 +1,164 @@
+package hadoopTypes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+import solverTypes.Solution;
+
+/**
+ *
+ * @author tamvadss
+ * Map output key. Solutions are keyed by their objective value, and new nodes by their depth, shard and
+ * parent LP bound.
+ *
+ * Keys sort by kind, then depth, then shard, then rank, where the rank is the objective value of a solution,
+ * or the parent LP bound of a node, turned into smaller is better. So the reducer sees the best solution
+ * first and need not parse the others, and gets the nodes of a shard best bound first.
+ * Keys group, and are partitioned (see SolverKeyPartitioner), by kind, depth and shard only.
+ *
+ * The shard spreads the nodes of one depth over all the reducers.
+ * Every mapper also sends each shard it emitted nodes to the estimated cost of those nodes, under a node key
+ * which ranks before any node, so that the reducer knows the cost of the whole shard before its first node.
+ */
+public class SolverKeyWritable implements WritableComparable<SolverKeyWritable> {
+
+    public static final byte SOLUTION = 0;
+    public static final byte NODES = 1;
+
+    //offsets into the serialized form, for the raw comparators
+    private static final int DEPTH_OFFSET = 1;
+    private static final int SHARD_OFFSET = DEPTH_OFFSET + 8;
+    private static final int RANK_OFFSET = SHARD_OFFSET + 4;
+
+    private byte kind;
+    private long depth;
+    private int shard;
+    private double rank;
+
+    static {
+        WritableComparator.define(SolverKeyWritable.class, new Comparator());
+    }
+
+    public SolverKeyWritable() {
+    }
+
+    private SolverKeyWritable(byte kind, long depth, int shard, double rank) {
+        this.kind = kind;
+        this.depth = depth;
+        this.shard = shard;
+        this.rank = rank;
+    }
+
+    public static SolverKeyWritable forSolution(Solution solution, boolean isMax) {
+        //infeasible solutions come last
+        double rank = !solution.getIsFeasibleOrOptimal() ? Double.POSITIVE_INFINITY :
+            (isMax ? -solution.getOptimumValue() : solution.getOptimumValue());
+        return new SolverKeyWritable(SOLUTION, 0, 0, rank);
+    }
+
+    public static SolverKeyWritable forNode(long depth, int shard, double parentLPRelaxValue, boolean isMax) {
+        return new SolverKeyWritable(NODES, depth, shard, isMax ? -parentLPRelaxValue : parentLPRelaxValue);
+    }
+
+    public static SolverKeyWritable forShardCost(long depth, int shard) {
+        return new SolverKeyWritable(NODES, depth, shard, Double.NEGATIVE_INFINITY);
+    }
+
+    public boolean isSolution() {
+        return kind == SOLUTION;
+    }
+
+    public long getDepth() {
+        return depth;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(kind);
+        out.writeLong(depth);
+        out.writeInt(shard);
+        out.writeDouble(rank);
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        kind = in.readByte();
+        depth = in.readLong();
+        shard = in.readInt();
+        rank = in.readDouble();
+    }
+
+    public int compareTo(SolverKeyWritable other) {
+        if (kind != other.kind) return kind < other.kind ? -1 : 1;
+        if (depth != other.depth) return depth < other.depth ? -1 : 1;
+        if (shard != other.shard) return shard < other.shard ? -1 : 1;
+        return Double.compare(rank, other.rank);
+    }
+
+    //the rank is left out, as for grouping
+    public int hashCode() {
+        return 31 * (31 * kind + (int) (depth ^ (depth >>> 32))) + shard;
+    }
+
+    public boolean equals(Object other) {
+        return other instanceof SolverKeyWritable && compareTo((SolverKeyWritable) other) == 0;
+    }
+
+    public String toString() {
+        return isSolution() ? "SOLN " + rank : depth + "_" + shard + " " + rank;
+    }
+
+    //compares kind, depth and shard of 2 serialized keys
+    private static int compareGroups(byte[] b1, int s1, byte[] b2, int s2) {
+        if (b1[s1] != b2[s2]) return b1[s1] < b2[s2] ? -1 : 1;
+        long depth1 = WritableComparator.readLong(b1, s1 + DEPTH_OFFSET);
+        long depth2 = WritableComparator.readLong(b2, s2 + DEPTH_OFFSET);
+        if (depth1 != depth2) return depth1 < depth2 ? -1 : 1;
+        int shard1 = WritableComparator.readInt(b1, s1 + SHARD_OFFSET);
+        int shard2 = WritableComparator.readInt(b2, s2 + SHARD_OFFSET);
+        return shard1 < shard2 ? -1 : (shard1 == shard2 ? 0 : 1);
+    }
+
+    //sort order, without deserializing the keys
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(SolverKeyWritable.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int result = compareGroups(b1, s1, b2, s2);
+            if (result != 0) return result;
+            return Double.compare(WritableComparator.readDouble(b1, s1 + RANK_OFFSET),
+                    WritableComparator.readDouble(b2, s2 + RANK_OFFSET));
+        }
+    }
+
+    //grouping for the reducer, all solutions in one call and all the nodes of a shard of a depth in another
+    public static class GroupComparator extends WritableComparator {
+
+        public GroupComparator() {
+            super(SolverKeyWritable.class);
+        }
+
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return compareGroups(b1, s1, b2, s2);
+        }
+
+        @SuppressWarnings("rawtypes")
+        public int compare(WritableComparable one, WritableComparable other) {
+            SolverKeyWritable key1 = (SolverKeyWritable) one;
+            SolverKeyWritable key2 = (SolverKeyWritable) other;
+            if (key1.kind != key2.kind) return key1.kind < key2.kind ? -1 : 1;
+            if (key1.depth != key2.depth) return key1.depth < key2.depth ? -1 : 1;
+            return key1.shard < key2.shard ? -1 : (key1.shard == key2.shard ? 0 : 1);
+        }
+    }
+
+}
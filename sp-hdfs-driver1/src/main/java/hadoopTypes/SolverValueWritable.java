@@ -0,0 +1,34 @@
+package hadoopTypes;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.GenericWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * 
+ * @author tamvadss
+ * Map output value. Mappers emit both solutions (JSON text) and new nodes (binary) in the same job, and the
+ * estimated solve time of the new nodes they sent to every shard.
+ */
+public class SolverValueWritable extends GenericWritable {
+
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Writable>[] TYPES = new Class[] {
+        Text.class,
+        NodeAttachmentWritable.class,
+        DoubleWritable.class
+    };
+
+    public SolverValueWritable() {
+    }
+
+    public SolverValueWritable(Writable value) {
+        set(value);
+    }
+
+    protected Class<? extends Writable>[] getTypes() {
+        return TYPES;
+    }
+
+}
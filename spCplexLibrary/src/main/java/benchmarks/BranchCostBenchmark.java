@@ -0,0 +1,150 @@
+package benchmarks;
+
+import static constantsAndParams.Constants.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import dataTypes.NodeAttachment;
+import dataTypes.SparseBounds;
+
+/**
+ *
+ * @author srini
+ *
+ * Per branch cost of creating child node attachments on a deep dive, without CPLEX.
+ *
+ * flat : every child copies its parent's full bounds, then merges the bound of every variable ( this is
+ * what the BranchHandler did before node attachments shared their parent's bounds )
+ * shared : every child points to its parent and records only the branching bound and the tightenings
+ *
+ * At every level both children are created and kept, as CPLEX keeps the node data of open nodes.
+ * usage : BranchCostBenchmark [number of variables] [depth] [tightenings per branch]
+ *
+ */
+public class BranchCostBenchmark {
+
+    public static void main(String[] args) {
+
+        int numVariables = args.length > ZERO ? Integer.parseInt(args[ZERO]) : 20000;
+        int depth = args.length > ONE ? Integer.parseInt(args[ONE]) : 500;
+        int tighteningsPerBranch = args.length > TWO ? Integer.parseInt(args[TWO]) : 3;
+
+        //warm up, then measure
+        dive(numVariables, depth, tighteningsPerBranch, true);
+        dive(numVariables, depth, tighteningsPerBranch, false);
+        long[] flat = dive(numVariables, depth, tighteningsPerBranch, true);
+        long[] shared = dive(numVariables, depth, tighteningsPerBranch, false);
+
+        System.out.println("variables " + numVariables + ", depth " + depth + ", tightenings per branch " + tighteningsPerBranch);
+        System.out.println("flat   ns per branch " + flat[ZERO]/depth + ", bound entries retained " + flat[ONE]);
+        System.out.println("shared ns per branch " + shared[ZERO]/depth + ", bound entries retained " + shared[ONE] +
+                ", ns to flatten the deepest node " + shared[TWO]);
+    }
+
+    //returns elapsed nanos, bound entries held by all the nodes, and the nanos to flatten the deepest node
+    private static long[] dive(int numVariables, int depth, int tighteningsPerBranch, boolean isFlat) {
+
+        Random random = new Random(ONE);
+
+        //binaries, plus a few general integers
+        double[] originalUpperBounds = new double[numVariables];
+        double[] originalLowerBounds = new double[numVariables];
+        for (int index = ZERO; index < numVariables; index ++) {
+            originalUpperBounds[index] = index % 10 == ZERO ? 100 : ONE;
+        }
+
+        //what CPLEX reports for the node being branched
+        double[] currentUpperBounds = originalUpperBounds.clone();
+        double[] currentLowerBounds = originalLowerBounds.clone();
+
+        //scratch arrays of the shared scheme
+        double[] recordedUpperBounds = new double[numVariables];
+        double[] recordedLowerBounds = new double[numVariables];
+
+        List<NodeAttachment> nodes = new ArrayList<NodeAttachment>();
+        NodeAttachment node = new NodeAttachment();
+        nodes.add(node);
+
+        long start = System.nanoTime();
+        for (int level = ZERO; level < depth; level ++) {
+
+            //bounds found by CPLEX at this node
+            for (int count = ZERO; count < tighteningsPerBranch; count ++) {
+                int index = random.nextInt(numVariables);
+                currentUpperBounds[index] = Math.max(currentLowerBounds[index], currentUpperBounds[index] - ONE);
+            }
+            int branchingIndex = random.nextInt(numVariables);
+
+            NodeAttachment[] children = new NodeAttachment[TWO];
+            if (isFlat) {
+                SparseBounds denseUpperBounds = toSparse(currentUpperBounds, true);
+                SparseBounds denseLowerBounds = toSparse(currentLowerBounds, false);
+                for (int childNum = ZERO; childNum < TWO; childNum ++) {
+                    NodeAttachment child = new NodeAttachment(false, node.getUpperBounds(), node.getLowerBounds(),
+                            ONE + node.getDepthFromOriginalRoot(), ONE + node.getDepthFromSubtreeRoot());
+                    child.mergeBound(branchingIndex, childNum == ZERO ? ZERO : ONE, childNum == ZERO);
+                    child.getUpperBounds().mergeAll(denseUpperBounds);
+                    child.getLowerBounds().mergeAll(denseLowerBounds);
+                    children[childNum] = child;
+                }
+            } else {
+                System.arraycopy(originalUpperBounds, ZERO, recordedUpperBounds, ZERO, numVariables);
+                System.arraycopy(originalLowerBounds, ZERO, recordedLowerBounds, ZERO, numVariables);
+                node.applyBoundsTo(recordedUpperBounds, recordedLowerBounds);
+                SparseBounds upperBoundTightenings = new SparseBounds(true);
+                SparseBounds lowerBoundTightenings = new SparseBounds(false);
+                for (int index = ZERO; index < numVariables; index ++) {
+                    if (currentUpperBounds[index] < recordedUpperBounds[index]) {
+                        upperBoundTightenings.merge(index, currentUpperBounds[index]);
+                    }
+                    if (currentLowerBounds[index] > recordedLowerBounds[index]) {
+                        lowerBoundTightenings.merge(index, currentLowerBounds[index]);
+                    }
+                }
+                for (int childNum = ZERO; childNum < TWO; childNum ++) {
+                    NodeAttachment child = node.createChild(false);
+                    child.mergeBound(branchingIndex, childNum == ZERO ? ZERO : ONE, childNum == ZERO);
+                    for (int position = ZERO; position < upperBoundTightenings.size(); position ++) {
+                        child.mergeBound(upperBoundTightenings.getIndex(position), upperBoundTightenings.getValue(position), true);
+                    }
+                    for (int position = ZERO; position < lowerBoundTightenings.size(); position ++) {
+                        child.mergeBound(lowerBoundTightenings.getIndex(position), lowerBoundTightenings.getValue(position), false);
+                    }
+                    children[childNum] = child;
+                }
+            }
+
+            //dive into the down branch
+            nodes.add(children[ZERO]);
+            nodes.add(children[ONE]);
+            node = children[ZERO];
+            currentUpperBounds[branchingIndex] = Math.min(currentUpperBounds[branchingIndex], ZERO);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        //count what every node holds itself, before anything is flattened
+        long retained = ZERO;
+        for (NodeAttachment open : nodes) {
+            retained += open.getLocalBoundCount();
+        }
+
+        //migrating the deepest node flattens it
+        start = System.nanoTime();
+        node.flatten();
+        long flattenNanos = System.nanoTime() - start;
+
+        return new long[] {elapsed, retained, flattenNanos};
+    }
+
+    private static SparseBounds toSparse(double[] denseValues, boolean isUpperBound) {
+        SparseBounds bounds = new SparseBounds(isUpperBound);
+        for (int index = ZERO; index < denseValues.length; index ++) {
+            bounds.merge(index, denseValues[index]);
+        }
+        return bounds;
+    }
+
+}
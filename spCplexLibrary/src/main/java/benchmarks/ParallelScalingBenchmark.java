@@ -0,0 +1,56 @@
+package benchmarks;
+
+import static constantsAndParams.Constants.*;
+
+import dataTypes.NodeAttachment;
+import drivers.ParallelDriver;
+import utilities.ModelCache;
+
+/**
+ *
+ * @author srini
+ *
+ * Throughput of the ParallelDriver against the number of workers, on the model in SAV_FILENAME.
+ *
+ * For every worker count 1, 2, 4 .. up to the number of cores, the search starts again from the root and runs
+ * for a fixed wall clock time. Every worker solves with the same number of CPLEX threads, one by default.
+ * Reported are time slices solved and subtrees completed per second, and the best incumbent found.
+ * The model cache is warmed up first, so that the first run does not pay for importing the model.
+ *
+ * usage : ParallelScalingBenchmark [seconds per run] [time slice in seconds] [max number of workers]
+ *                                  [CPLEX threads per worker]
+ *
+ */
+public class ParallelScalingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int secondsPerRun = args.length > ZERO ? Integer.parseInt(args[ZERO]) : 60;
+        double timeSliceInSeconds = args.length > ONE ? Double.parseDouble(args[ONE]) : TWO;
+        int maxWorkers = args.length > TWO ? Integer.parseInt(args[TWO]) : cores;
+        int threadsPerWorker = args.length > THREE ? Integer.parseInt(args[THREE]) : ONE;
+
+        ModelCache.release(SAV_FILENAME, ModelCache.checkout(SAV_FILENAME), new NodeAttachment());
+
+        System.out.println("cores " + cores + ", seconds per run " + secondsPerRun + ", time slice " + timeSliceInSeconds);
+        for (int numWorkers = ONE; numWorkers <= maxWorkers; numWorkers *= TWO) {
+
+            ParallelDriver driver = new ParallelDriver(numWorkers, threadsPerWorker, timeSliceInSeconds);
+
+            long start = System.currentTimeMillis();
+            boolean isComplete = driver.solve(new NodeAttachment(), secondsPerRun * (long) THOUSAND);
+            double seconds = (System.currentTimeMillis() - start) / (double) THOUSAND;
+
+            System.out.println("workers " + numWorkers + " x " + threadsPerWorker + " CPLEX threads : " +
+                    "time slices per second " + driver.getTimeSlicesSolved() / seconds +
+                    ", subtrees completed per second " + driver.getSubtreesCompleted() / seconds +
+                    ", best incumbent " + driver.getBestKnownIncumbentValue() +
+                    (isComplete ? ", search completed in " + seconds + " seconds" : ""));
+            System.out.println(driver.getPoolStatistics());
+        }
+
+        System.out.println(ModelCache.getStatistics());
+    }
+
+}
@@ -1,15 +1,17 @@
 package callbacks;
  
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import utilities.UtilityLibrary;
 import static constantsAndParams.Constants.*;
 import static constantsAndParams.Parameters.*; 
+import dataTypes.CompressedBasis;
 import dataTypes.NodeAttachment;
+import dataTypes.SparseBounds;
 import dataTypes.SubtreeMetaData;
 import ilog.concert.IloException;
 import ilog.concert.IloNumVar;
@@ -25,20 +27,24 @@ import ilog.cplex.IloCplex.NodeId;
  * 2) farms out node when the ILOCPLEX object is too big, or when instructed to farm
  * 3) discards nodes, or entire subtree,  which are inferior to already known incumbent
  * 4) implements distributed MIP gap by using the bestKnownGlobalOptimum
+ * 
+ * CPLEX may call the handler from several threads at once, see Solver.setSolverParams. Every thread collects
+ * the nodes it offers for migration in its own list, and uses its own scratch arrays.
  *
  */
 public class BranchHandler extends IloCplex.BranchCallback{
     
     //whether we are told to farm  
     private   boolean farmingInstruction;
-    //depending on how the tree grows, the handler may overrule the farming Instruction
-    private boolean farmingDecision;
      
-    //a node which could be migrated away
-    private  List<NodeAttachment>  migrationCandidatesList ; //list will have <= 1 item
-    //Driver makes a decision whether to actually migrate this node or not
-    private boolean wasCandidateChosenForMigration = false;
-    private boolean candidateOfferedForMigration = false;
+    //nodes which could be migrated away, one list per CPLEX thread
+    //each list will have <= 1 item, as the solve is aborted once a node is offered
+    private volatile ConcurrentLinkedQueue<List<NodeAttachment>> migrationCandidateLists ; 
+    private volatile ThreadLocal<List<NodeAttachment>> migrationCandidates;
+    //the nodes offered for migration in the last solve, Driver makes a decision whether to actually migrate them or not
+    private final Set<NodeId> nodesOfferedForMigration = ConcurrentHashMap.newKeySet();
+    //the nodes which were migrated and are still open here, they must be pruned when CPLEX next branches them
+    private final Set<NodeId> migratedNodes = ConcurrentHashMap.newKeySet();
     
     //best known optimum is used to prune nodes
     private double bestKnownGlobalOptimum;
@@ -48,23 +54,57 @@ public class BranchHandler extends IloCplex.BranchCallback{
     private SubtreeMetaData metaData;
     IloNumVar[]  modelIntVars ;
     
+    //the upper and lower bounds of the node being branched, as recorded in its node attachment chain
+    //reused at every branch of a thread, position i is the variable with index i in the dictionary
+    private final ThreadLocal<double[][]> recordedBounds = new ThreadLocal<double[][]>() {
+        protected double[][] initialValue() {
+            return new double[TWO][modelIntVars.length];
+        }
+    };
+    
     public BranchHandler (SubtreeMetaData metaData) {
         this.  metaData= metaData;
         modelIntVars = metaData.getIntvars();
-        migrationCandidatesList= new ArrayList<NodeAttachment>();
+        clearMigrationCandidates();
     }
  
     
     public void reset( boolean farmingInstruction, boolean wasCandidateChosenForMigration , 
             double bestKnownGlobalOptimum) {
         this.bestKnownGlobalOptimum=bestKnownGlobalOptimum;
-        this.wasCandidateChosenForMigration=wasCandidateChosenForMigration;
         this.farmingInstruction=farmingInstruction;
-        migrationCandidatesList= new ArrayList<NodeAttachment>();
+        //the decision only concerns the nodes offered in the last solve, nodes which were not migrated stay in the tree
+        //nodes migrated earlier are remembered until they are pruned
+        if (wasCandidateChosenForMigration) migratedNodes.addAll(nodesOfferedForMigration);
+        nodesOfferedForMigration.clear();
+        clearMigrationCandidates();
     } 
     
+    //whether this open node was offered in some earlier solve, and moved elsewhere since
+    public boolean wasMigrated(NodeId nodeId) {
+        return migratedNodes.contains(nodeId);
+    }
+    
+    //the nodes offered by all the threads in the last solve
     public List<NodeAttachment> getMigrationCandidatesList(){
-        return migrationCandidatesList;
+        List<NodeAttachment> candidates = new ArrayList<NodeAttachment>();
+        for (List<NodeAttachment> list : migrationCandidateLists) {
+            candidates.addAll(list);
+        }
+        return candidates;
+    }
+    
+    //new lists, the lists of threads CPLEX no longer uses are dropped
+    private void clearMigrationCandidates() {
+        final ConcurrentLinkedQueue<List<NodeAttachment>> lists = new ConcurrentLinkedQueue<List<NodeAttachment>>();
+        migrationCandidates = new ThreadLocal<List<NodeAttachment>>() {
+            protected List<NodeAttachment> initialValue() {
+                List<NodeAttachment> list = new ArrayList<NodeAttachment>();
+                lists.add(list);
+                return list;
+            }
+        };
+        migrationCandidateLists = lists;
     }
     
     public boolean isEntireSubtreeDiscardable() {
@@ -80,6 +120,16 @@ public class BranchHandler extends IloCplex.BranchCallback{
           
             //tree is branching
             
+            //a migrated node is pruned by one of the checks below, so it need not be remembered any longer
+            boolean wasMigrated = migratedNodes.remove(getNodeId());
+            
+            //a leaf stolen by another subtree is solved there
+            if (metaData.isStolen(getNodeId())) {
+                metaData.removeStolenLeafNode(getNodeId());
+                prune();
+                return;
+            }
+            
             //first check if entire tree can be discarded
             if (canTreeBeDiscarded()    ){
                 
@@ -112,16 +162,12 @@ public class BranchHandler extends IloCplex.BranchCallback{
             
             if (isProcessingRequired) {
                 
-                //check to see if we had offered up a node and it was chosen for migration
-                boolean mustPrune =  wasCandidateChosenForMigration && this.candidateOfferedForMigration;
-                
+                //check to see if we had offered up this node and it was chosen for migration, in this or an earlier solve
                 //note that, if we had not offered up a node for migration, user can supply any value for wasCandidateChosenForMigration
                                  
-                if (mustPrune) {
+                if (wasMigrated) {
                     //prune this node, it has been moved and will be solved somewhere else
                     prune();
-                    //we are not offering anything for migration right now
-                    candidateOfferedForMigration=false;
                     
                 } else {
                     
@@ -146,14 +192,18 @@ public class BranchHandler extends IloCplex.BranchCallback{
                     
                     //make the farming decision. 
                     //If this node is farmed and migrated , then its children will not spawn here
-                    makeFarmingDecison(nodeData);
+                    boolean farmingDecision = makeFarmingDecison(nodeData);
                     
                     //if decision is to farm, we can add this node to migration candidate list, and abort()
                     //otherwise we must let its kids spawn
                     if (farmingDecision) {
                         
-                        this.migrationCandidatesList.add( nodeData );     
-                        this.candidateOfferedForMigration=true;
+                        if (CARRY_BASIS_WITH_MIGRATED_NODES) {
+                            nodeData.setBasis(new CompressedBasis(getValues(modelIntVars), findIntegerBounds(false), 
+                                    findIntegerBounds(true), getSlacks(metaData.getRanges())));
+                        }
+                        migrationCandidates.get().add( nodeData );     
+                        nodesOfferedForMigration.add(getNodeId());
                         abort();
                         
                         //there is a chance here that the same node will repeatedly be offered as a migration candidate, and
@@ -161,32 +211,31 @@ public class BranchHandler extends IloCplex.BranchCallback{
                         
                     }else {
                         
-                        this.candidateOfferedForMigration=false;
-                        
                         //get the branches about to be created
                         IloNumVar[][] vars = new IloNumVar[TWO][] ;
                         double[ ][] bounds = new double[TWO ][];
                         BranchDirection[ ][]  dirs = new  BranchDirection[ TWO][];
                         getBranches(  vars, bounds, dirs);
                         
-                        //get bound tightenings
-                        Map< IloNumVar,Double > upperBoundTightenings = findIntegerBounds(true);
-                        Map< IloNumVar,Double > lowerBoundTightenings = findIntegerBounds(false);
+                        //get bound tightenings found at this node, i.e. bounds which are tighter than the ones
+                        //already recorded in the node attachment chain
+                        SparseBounds upperBoundTightenings = new SparseBounds(true);
+                        SparseBounds lowerBoundTightenings = new SparseBounds(false);
+                        findBoundTightenings(nodeData, upperBoundTightenings, lowerBoundTightenings);
                         
                         //allow  both kids to spawn
                         for (int childNum = ZERO ;childNum<getNbranches();  childNum++) {    
                             //apply the bound changes specific to this child
                             NodeAttachment thisChild  = UtilityLibrary.createChildNode( nodeData,
-                                    dirs[childNum], bounds[childNum], vars[childNum]  , isChildEasy() ); 
+                                    dirs[childNum], bounds[childNum], vars[childNum]  , isChildEasy(), 
+                                    metaData.getVariableDictionary()); 
                             
-                            //apply bound tightenings
+                            //apply bound tightenings, these are usually few
+                            mergeTightenings(thisChild, upperBoundTightenings);
+                            mergeTightenings(thisChild, lowerBoundTightenings);
                             
-                            for (Entry<IloNumVar, Double> entry : upperBoundTightenings.entrySet()){
-                                UtilityLibrary. mergeBound(thisChild, entry.getKey().getName(), entry.getValue()  , true);
-                            }
-                            for (Entry<IloNumVar, Double> entry : lowerBoundTightenings.entrySet()){
-                                UtilityLibrary. mergeBound(thisChild, entry.getKey().getName(), entry.getValue()  , false);
-                            }
+                            //the LP bound of this node, so that leafs can be stolen best bound first
+                            thisChild.setParentLPRelaxValue(getObjValue());
 
                             //   create the  kid,  and attach node data  to the kid
                             NodeId nodeID = makeBranch(childNum,thisChild );
@@ -194,6 +243,7 @@ public class BranchHandler extends IloCplex.BranchCallback{
                             this.metaData.addUnsolvedLeafNodes(nodeID, thisChild);
                             
                         }
+                        metaData.setRootBranched();
                         
                     }//end if farming decision
                     
@@ -258,10 +308,10 @@ public class BranchHandler extends IloCplex.BranchCallback{
     }
     
     //the branch handler makes the farming decision    
-    private void makeFarmingDecison ( NodeAttachment thisNodeData) throws IloException{
+    private boolean makeFarmingDecison ( NodeAttachment thisNodeData) throws IloException{
         
         //default is to obey the instruction
-        farmingDecision= farmingInstruction   ; 
+        boolean farmingDecision= farmingInstruction   ; 
         
         long activeNodeCount = getNremainingNodes64();
         
@@ -274,7 +324,8 @@ public class BranchHandler extends IloCplex.BranchCallback{
             farmingDecision = thisNodeData.getTimeFor_LP_Relaxation()<LP_RELAX_THRESHOLD_FOR_FARMING_MILLISEC; 
              
         }
-               
+        
+        return farmingDecision;
     }
     
     private boolean isChildEasy(){
@@ -282,16 +333,39 @@ public class BranchHandler extends IloCplex.BranchCallback{
         return false;
     }
     
-    private Map< IloNumVar,Double > findIntegerBounds (boolean isUpperBound) throws IloException {
-        Map< IloNumVar,Double > results = new  HashMap< IloNumVar,Double >();
+    //the current bounds of every model variable at this node
+    //position i is the variable with index i in the dictionary
+    private double[] findIntegerBounds (boolean isUpperBound) throws IloException {
+        return isUpperBound ? getUBs( modelIntVars): getLBs(modelIntVars);
+    }
+    
+    //collect the current bounds which are tighter than the bounds recorded for nodeData
+    private void findBoundTightenings (NodeAttachment nodeData, SparseBounds upperBoundTightenings, 
+            SparseBounds lowerBoundTightenings) throws IloException {
         
-        double[] values  = isUpperBound ? getUBs( modelIntVars): getLBs(modelIntVars);
-
-        for (int index = ZERO ; index <modelIntVars.length; index ++ ){
-
-            results.put( modelIntVars[index] , values[index]) ;
+        double[] recordedUpperBounds = recordedBounds.get()[ZERO];
+        double[] recordedLowerBounds = recordedBounds.get()[ONE];
+        System.arraycopy(metaData.getOriginalUpperBounds(), ZERO, recordedUpperBounds, ZERO, recordedUpperBounds.length);
+        System.arraycopy(metaData.getOriginalLowerBounds(), ZERO, recordedLowerBounds, ZERO, recordedLowerBounds.length);
+        nodeData.applyBoundsTo(recordedUpperBounds, recordedLowerBounds);
+        
+        double[] currentUpperBounds = findIntegerBounds(true);
+        double[] currentLowerBounds = findIntegerBounds(false);
+        
+        for (int index = ZERO; index < recordedUpperBounds.length; index ++) {
+            if (currentUpperBounds[index] < recordedUpperBounds[index]) {
+                upperBoundTightenings.merge(index, currentUpperBounds[index]);
+            }
+            if (currentLowerBounds[index] > recordedLowerBounds[index]) {
+                lowerBoundTightenings.merge(index, currentLowerBounds[index]);
+            }
+        }
+    }
+    
+    private void mergeTightenings (NodeAttachment child, SparseBounds tightenings) {
+        for (int position = ZERO; position < tightenings.size(); position ++) {
+            child.mergeBound(tightenings.getIndex(position), tightenings.getValue(position), tightenings.isUpperBound());
         }
-        return results;
     }
     
 }
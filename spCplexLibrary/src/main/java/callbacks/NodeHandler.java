@@ -1,5 +1,8 @@
 package callbacks;
  
+import java.util.ArrayList;
+import java.util.List;
+
 import dataTypes.NodeAttachment;
 import dataTypes.SubtreeMetaData;
 import ilog.concert.IloException;
@@ -12,19 +15,50 @@ import static constantsAndParams.Parameters.*;
  * @author srini
  * 
  * records solution start time for this node
+ * 
+ * When asked to drain, it instead collects the node attachments of all the open nodes and aborts the solve,
+ * so that the subtree can be ended and its open nodes solved later, see ActiveSubtree.drainOpenNodes
  *
  */
 public class NodeHandler extends IloCplex.NodeCallback{
     
     //meta data of the subtree which we are monitoring
     private SubtreeMetaData metaData;
+    //knows which open nodes were migrated
+    private BranchHandler branchHandler;
     
-    public NodeHandler (SubtreeMetaData metaData) {
+    //set by startDrain, until the next node is selected
+    private boolean isDraining = false;
+    private List<NodeAttachment> drainedNodes = null;
+    
+    public NodeHandler (SubtreeMetaData metaData, BranchHandler branchHandler) {
         this.  metaData= metaData;
+        this.branchHandler = branchHandler;
+    }
+    
+    public void startDrain() {
+        isDraining = true;
+        drainedNodes = null;
+    }
+    
+    public void stopDrain() {
+        isDraining = false;
+    }
+    
+    //null if the solve did not get to select a node, or some open node had no attachment
+    public List<NodeAttachment> getDrainedNodes() {
+        return drainedNodes;
     }
  
     protected void main() throws IloException {
         
+        if (isDraining) {
+            isDraining = false;
+            drainedNodes = drain();
+            abort();
+            return;
+        }
+        
         if (ZERO<getNremainingNodes64()) {
             
             //get the node data for the node chosen for solving 
@@ -41,5 +75,20 @@ public class NodeHandler extends IloCplex.NodeCallback{
         }
         
     }
+    
+    private List<NodeAttachment> drain() throws IloException {
+        List<NodeAttachment> openNodes = new ArrayList<NodeAttachment>();
+        for (long index = ZERO; index < getNremainingNodes64(); index ++) {
+            //stolen leafs are solved elsewhere
+            if (metaData.isStolen(getNodeId(index))) continue;
+            //as are nodes chosen for migration, which the branch handler has not had the chance to prune
+            if (branchHandler.wasMigrated(getNodeId(index))) continue;
+            NodeAttachment nodeData = (NodeAttachment) getNodeData(index);
+            //a node CPLEX created itself cannot be rebuilt
+            if (nodeData == null) return null;
+            openNodes.add(nodeData);
+        }
+        return openNodes;
+    }
 
 }
@@ -7,6 +7,7 @@ public class Constants implements Serializable{
     public static final int ZERO = 0;
     public static final int ONE = 1;
     public static final int TWO = 2;
+    public static final int THREE = 3;
     public static final int SIX = 6;
     public static final int SIXTEEN = 16;
     public static final int MINUS_ONE = -1;
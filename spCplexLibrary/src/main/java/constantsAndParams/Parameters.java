@@ -16,6 +16,22 @@ public class Parameters implements Serializable{
     
     public static double  RELATIVE_MIP_GAP = ZERO;
     
+    //nodes offered for migration carry their LP basis, so that their LP is warm started where they land
+    public static boolean  CARRY_BASIS_WITH_MIGRATED_NODES = true;
+    
+    //drivers using a SubtreePool keep at most this many subtrees, i.e. IloCplex objects, in memory
+    public static int  MAX_RESIDENT_SUBTREES = THOUSAND;
+    //and at most this many open nodes in them, the search trees being most of the native memory CPLEX uses
+    public static long  MAX_RESIDENT_OPEN_NODES = THOUSAND*THOUSAND;
+    //the open nodes of subtrees evicted from memory go to files in this directory
+    public static String  SPILL_DIRECTORY = System.getProperty("java.io.tmpdir");
+    
+    //an idle worker steals at most this many leafs at a time from the busiest subtree
+    public static int  MAX_LEAFS_PER_STEAL = SIX;
+    
+    //CPLEX threads for every subtree, 0 uses all the cores ; drivers solving many subtrees at once set their own
+    public static int  CPLEX_THREADS_PER_SUBTREE = ZERO;
+    
     //search strategy
     public static boolean  DEPTH_FIRST_SEARCH = false;
     
@@ -3,13 +3,15 @@ package dataTypes;
 import java.io.IOException; 
  
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
 import solver.Solver; 
+import utilities.ModelCache;
 import utilities.UtilityLibrary;
 import ilog.concert.IloException;
-import ilog.concert.IloLPMatrix;
+import ilog.concert.IloNumVar;
 import ilog.cplex.IloCplex;
 import static constantsAndParams.Constants.*;
 
@@ -33,21 +35,74 @@ public class ActiveSubtree {
         
     //a solver object that is used to solve this tree few seconds at a time 
     private Solver solver ;   
+    
+    //status and objective value of the last solve, asked from CPLEX once per solve
+    //null until asked for
+    private IloCplex.Status status ;
+    private double objectiveValue ;
+    //the solution of the last solve, the variable values are only pulled from CPLEX if someone asks for them
+    private Solution solution ;
    
 
     //Constructor
     public ActiveSubtree (  NodeAttachment attachment) throws  Exception  {
         
-        //initialize the CPLEX object
-        cplex= new IloCplex();   
-        cplex.importModel(SAV_FILENAME);
-        UtilityLibrary.merge(cplex, attachment); 
+        //initialize the CPLEX object, the model is only imported if the cache has no IloCplex to spare
+        cplex= ModelCache.checkout(SAV_FILENAME);   
+        try {
+            UtilityLibrary.merge(cplex, attachment); 
+            
+            //bounds at the subtree root are the model bounds with the attachment applied, no need to ask CPLEX
+            double[] originalUpperBounds = ModelCache.getOriginalUpperBounds(SAV_FILENAME).clone();
+            double[] originalLowerBounds = ModelCache.getOriginalLowerBounds(SAV_FILENAME).clone();
+            attachment.applyBoundsTo(originalUpperBounds, originalLowerBounds);
+            metaData = new SubtreeMetaData(   attachment, ModelCache.getVariables(cplex), ModelCache.getRanges(cplex),
+                    ModelCache.getVariableDictionary(SAV_FILENAME), originalUpperBounds, originalLowerBounds);
+            
+            //get ourselves a solver
+            solver = new Solver( cplex   , metaData);
+        } catch (Exception ex) {
+            //nobody else can end this subtree, give the IloCplex back with the bounds of the attachment undone
+            ModelCache.release(SAV_FILENAME, cplex, attachment);
+            throw ex;
+        }
+    }
+    
+    /**
+     * 
+     * Start the search of this subtree from a known solution, usually the global incumbent.
+     * The solution need not satisfy the bounds of the subtree root, CPLEX repairs it. Infeasible solutions are ignored.
+     * The MIP start is deleted when the CPLEX object goes back to the model cache.
+     */
+    public void setMipStart (Solution incumbent) throws IloException {
+        if (incumbent == null || !incumbent.isFeasibleOrOptimal()) return;
         
-        IloLPMatrix lp = (IloLPMatrix)cplex.LPMatrixIterator().next();        
-        metaData = new SubtreeMetaData(   attachment, lp.getNumVars());
+        IloNumVar[] variables = ModelCache.getVariables(cplex);
+        List<IloNumVar> startVariables = new ArrayList<IloNumVar>();
+        List<Double> startValues = new ArrayList<Double>();
+        for (IloNumVar variable : variables) {
+            Double value = incumbent.getVariableMap().get(variable.getName());
+            if (value != null) {
+                startVariables.add(variable);
+                startValues.add(value);
+            }
+        }
+        if (startVariables.isEmpty()) return;
         
-        //get ourselves a solver
-        solver = new Solver( cplex   , metaData);
+        double[] values = new double[startValues.size()];
+        for (int index = ZERO; index < values.length; index ++) {
+            values[index] = startValues.get(index);
+        }
+        cplex.addMIPStart(startVariables.toArray(new IloNumVar[values.length]), values, IloCplex.MIPStartEffort.Repair);
+    }
+    
+    /**
+     * 
+     * Limit the number of threads CPLEX may use to solve this subtree, for drivers that solve many subtrees at once.
+     * Zero lets CPLEX use every core, as it does for a subtree solved on its own, see CPLEX_THREADS_PER_SUBTREE.
+     */
+    public void setThreadBudget (int threads) throws IloException {
+        solver.setThreads(threads);
     }
     
     /**
@@ -58,12 +113,54 @@ public class ActiveSubtree {
     public List<NodeAttachment> solve ( double timeSliceInSeconds, boolean farmingInstruction, double bestKnownGlobalOptimum  ,
             boolean wasCandidateChosenForMigration) throws IloException, IOException{
         
+        //the cached status and solution are stale from now on
+        status = null;
+        solution = null;
+        
         //solve for some time
         solver.solve( timeSliceInSeconds,     farmingInstruction,   bestKnownGlobalOptimum,   wasCandidateChosenForMigration );
         
         return solver.getMigrationCandidatesList();
     }
  
+    /**
+     * 
+     * The node attachments of all the open nodes of this subtree, so that it can be ended and its search picked
+     * up later by new subtrees, one per node. Returns null if that is not possible, the subtree is then unchanged.
+     * The node offered for migration in the last solve is left out if wasCandidateChosenForMigration.
+     * The nodes carry no LP basis.
+     */
+    public List<NodeAttachment> drainOpenNodes (double bestKnownGlobalOptimum, boolean wasCandidateChosenForMigration) 
+            throws IloException {
+        status = null;
+        solution = null;
+        return solver.drainOpenNodes(bestKnownGlobalOptimum, wasCandidateChosenForMigration);
+    }
+    
+    //open nodes this subtree has created and not yet solved, an estimate of its size
+    public int getOpenNodeCount () {
+        return metaData.getUnsolvedLeafNodeCount();
+    }
+    
+    /**
+     * 
+     * Take up to count open nodes away from this subtree, best bound first, to be solved as new subtrees.
+     * May be called while this subtree is being solved, the nodes are pruned here when CPLEX gets to them.
+     */
+    public List<NodeAttachment> stealLeafNodes (int count) {
+        return metaData.stealLeafNodes(count);
+    }
+    
+    /**
+     * 
+     * Give the CPLEX object back to the model cache, so that a new subtree can reuse it.
+     * This subtree cannot be used after this.
+     */
+    public void end() throws IloException {
+        ModelCache.release(SAV_FILENAME, cplex, metaData.getRootNodeAttachment());
+        cplex = null;
+    }
+ 
     public boolean isEntireSubtreeDiscardable() {
         //can we check the cutoff of the ILO-CPLEX object , and use the best known global optimum, before we
         //ask the solver object ?
@@ -77,7 +174,15 @@ public class ActiveSubtree {
         
     }
     
+    /**
+     * 
+     * The solution of the last solve, with all the variable values.
+     * The values are pulled from CPLEX on the first call after a solve, so drivers should use isOptimal() etc.
+     * to scan their subtrees, and ask only the subtree holding the incumbent for its solution.
+     */
     public Solution getSolution () throws IloException {
+        if (solution != null) return solution;
+        
         Solution soln = new Solution () ;
         
         soln.setError(isInError());
@@ -90,34 +195,46 @@ public class ActiveSubtree {
         
         if (isOptimalOrFeasible()) UtilityLibrary.addVariablevaluesToSolution(cplex, soln);
         
+        solution = soln;
         return soln;
     }
     
     public boolean isFeasible () throws IloException {
-        return cplex.getStatus().equals(IloCplex.Status.Feasible) ;
+        return getStatus().equals(IloCplex.Status.Feasible) ;
     }
     
     public boolean isUnFeasible () throws IloException {
-        return cplex.getStatus().equals(IloCplex.Status.Infeasible) ;
+        return getStatus().equals(IloCplex.Status.Infeasible) ;
     }
     
     public boolean isOptimal() throws IloException {
-        return cplex.getStatus().equals(IloCplex.Status.Optimal) ;
+        return getStatus().equals(IloCplex.Status.Optimal) ;
     }
     public boolean isOptimalOrFeasible() throws IloException {
         return isOptimal()|| isFeasible();
     }
     public boolean isUnbounded() throws IloException {
-        return cplex.getStatus().equals(IloCplex.Status.Unbounded) ;
+        return getStatus().equals(IloCplex.Status.Unbounded) ;
     }
     
     public boolean isInError() throws IloException {
-        return cplex.getStatus().equals(IloCplex.Status.Error) ;
+        return getStatus().equals(IloCplex.Status.Error) ;
     }
   
     public double getObjectiveValue() throws IloException {
-        double inferiorObjective = isMaximization?  MINUS_INFINITY:PLUS_INFINITY;
-        return isFeasible() || isOptimal() ? cplex.getObjValue():inferiorObjective;
+        getStatus();
+        return objectiveValue;
+    }
+    
+    //status of the last solve, CPLEX is asked only once after every solve
+    private IloCplex.Status getStatus () throws IloException {
+        if (status == null) {
+            status = cplex.getStatus();
+            boolean hasSolution = status.equals(IloCplex.Status.Feasible) || status.equals(IloCplex.Status.Optimal);
+            double inferiorObjective = isMaximization?  MINUS_INFINITY:PLUS_INFINITY;
+            objectiveValue = hasSolution ? cplex.getObjValue():inferiorObjective;
+        }
+        return status;
     }
         
     
@@ -0,0 +1,109 @@
+package dataTypes;
+
+import static constantsAndParams.Constants.*;
+
+import java.io.Serializable;
+
+import ilog.cplex.IloCplex.BasisStatus;
+
+/**
+ * 
+ * @author srini
+ * 
+ * The simplex basis of the LP relaxation of a migrated node, so that the LP need not be solved from scratch
+ * once the node is merged into a newly checked out IloCplex.
+ * 
+ * Every variable ( column ) and every constraint ( row ) has one of 4 statuses, packed 2 bits each, columns
+ * first. The BranchHandler cannot ask CPLEX for the basis of a node, so the basis is derived from the node's
+ * LP solution : a variable strictly between its bounds is basic, otherwise it is at the bound it sits on, and
+ * a constraint is basic if its slack is not zero. Under degeneracy this may not be an exact basis, CPLEX
+ * repairs it when it is installed.
+ *
+ */
+public class CompressedBasis implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    
+    private static final int AT_LOWER = ZERO;
+    private static final int BASIC = ONE;
+    private static final int AT_UPPER = TWO;
+    private static final int FREE_OR_SUPERBASIC = 3;
+    
+    private static final int STATUSES_PER_BYTE = 4;
+    
+    //how close to a bound a value must be, to be considered at the bound
+    private static final double TOLERANCE = 0.000001;
+
+    private final int columnCount;
+    private final int rowCount;
+    private final byte[] packedStatuses;
+    
+    /**
+     * 
+     * The basis of a node, from its LP solution as seen in the BranchHandler
+     */
+    public CompressedBasis (double[] values, double[] lowerBounds, double[] upperBounds, double[] slacks) {
+        
+        columnCount = values.length;
+        rowCount = slacks.length;
+        packedStatuses = new byte[(columnCount + rowCount + STATUSES_PER_BYTE - ONE) / STATUSES_PER_BYTE];
+        
+        for (int index = ZERO; index < columnCount; index ++) {
+            int status = BASIC;
+            if (values[index] <= lowerBounds[index] + TOLERANCE) {
+                status = AT_LOWER;
+            } else if (values[index] >= upperBounds[index] - TOLERANCE) {
+                status = AT_UPPER;
+            }
+            setStatus(index, status);
+        }
+        for (int index = ZERO; index < rowCount; index ++) {
+            setStatus(columnCount + index, Math.abs(slacks[index]) > TOLERANCE ? BASIC : AT_LOWER);
+        }
+    }
+    
+    public int getColumnCount () {
+        return columnCount;
+    }
+    
+    public int getRowCount () {
+        return rowCount;
+    }
+    
+    public int getSizeInBytes () {
+        return packedStatuses.length;
+    }
+    
+    public BasisStatus[] getColumnStatuses () {
+        return toBasisStatuses(ZERO, columnCount);
+    }
+    
+    public BasisStatus[] getRowStatuses () {
+        return toBasisStatuses(columnCount, rowCount);
+    }
+    
+    private BasisStatus[] toBasisStatuses (int first, int count) {
+        BasisStatus[] statuses = new BasisStatus[count];
+        for (int index = ZERO; index < count; index ++) {
+            switch (getStatus(first + index)) {
+                case BASIC : statuses[index] = BasisStatus.Basic; break;
+                case AT_UPPER : statuses[index] = BasisStatus.AtUpper; break;
+                case FREE_OR_SUPERBASIC : statuses[index] = BasisStatus.FreeOrSuperbasic; break;
+                default : statuses[index] = BasisStatus.AtLower;
+            }
+        }
+        return statuses;
+    }
+    
+    private int getStatus (int position) {
+        int shift = TWO * (position % STATUSES_PER_BYTE);
+        return (packedStatuses[position / STATUSES_PER_BYTE] >> shift) & 3;
+    }
+    
+    private void setStatus (int position, int status) {
+        int shift = TWO * (position % STATUSES_PER_BYTE);
+        int index = position / STATUSES_PER_BYTE;
+        packedStatuses[index] = (byte) ((packedStatuses[index] & ~(3 << shift)) | (status << shift));
+    }
+    
+}
@@ -1,10 +1,10 @@
 package dataTypes;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.*;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.List;
 
 import static constantsAndParams.Constants.*;
  
@@ -33,12 +33,17 @@ public class NodeAttachment implements Serializable{
     //every time there is a branching on a variable, we update on of these lists with the
     //new bound corresponding to the branching condition
     //
-    //the key is the Variable name
+    //the key is the Variable index in the VariableDictionary
     //
     //Note that this list may also have bounds on non-branching variables 
     //
-    protected Map< String, Double > upperBounds  = new HashMap< String, Double >();
-    protected Map< String, Double > lowerBounds = new HashMap< String, Double >();
+    //If this node has a parent, these lists only hold the bounds added at this node. The full bounds are
+    //the parent's bounds merged with ours, so a child costs the same to create at any depth.
+    //The chain is flattened when the node is serialized for migration.
+    //
+    protected SparseBounds upperBounds  = new SparseBounds(true);
+    protected SparseBounds lowerBounds = new SparseBounds(false);
+    protected transient NodeAttachment parent = null;
     
     //easy nodes are close to being solved
     protected boolean isEasy = false;
@@ -48,37 +53,49 @@ public class NodeAttachment implements Serializable{
     protected double startTimeFor_LP_Relaxation_millisec= ZERO;
     protected double endTimeFor_LP_Relaxation_millisec= ZERO;
     
+    //the LP basis of this node, recorded when the node is offered for migration, may be null
+    protected CompressedBasis basis = null;
+    
+    //LP relaxation value of the parent node, a bound on the objective in this node's subtree
+    //unknown for the original root, taken as the best possible value
+    protected double parentLPRelaxValue = isMaximization ? PLUS_INFINITY : MINUS_INFINITY;
+    
     //constructors    
     public NodeAttachment () {
       
     }
     
-    public NodeAttachment ( boolean easy,  Map< String, Double > upperBounds, 
-            Map< String, Double > lowerBounds,  int distanceFromOriginalRoot, int distanceFromSubtreeRoot) {
+    public NodeAttachment ( boolean easy,  SparseBounds upperBounds, 
+            SparseBounds lowerBounds,  int distanceFromOriginalRoot, int distanceFromSubtreeRoot) {
          
-        this.upperBounds = new HashMap< String, Double >();
-        this.lowerBounds = new HashMap< String, Double >();
-        for (Entry <String, Double> entry : upperBounds.entrySet()){
-            this.upperBounds.put(entry.getKey(), entry.getValue()  );
-        }
-        for (Entry <String, Double> entry : lowerBounds.entrySet()){
-            this.lowerBounds.put(entry.getKey(), entry.getValue()  );
-        }
+        this.upperBounds = new SparseBounds(upperBounds);
+        this.lowerBounds = new SparseBounds(lowerBounds);
         
         this.isEasy = easy;
         this.distanceFromOriginalRoot=distanceFromOriginalRoot;
         this.distanceFromSubtreeRoot=distanceFromSubtreeRoot;
     }
     
+    //a child that shares our bounds, and records only its own bound changes
+    public NodeAttachment createChild (boolean easy) {
+        NodeAttachment child = new NodeAttachment();
+        child.parent = this;
+        child.isEasy = easy;
+        child.distanceFromOriginalRoot = ONE + distanceFromOriginalRoot;
+        child.distanceFromSubtreeRoot = ONE + distanceFromSubtreeRoot;
+        return child;
+    }
+    
     public String toString() {
+        flatten();
         String result = distanceFromOriginalRoot + NEWLINE;
         result += distanceFromSubtreeRoot+ NEWLINE;
-        for (Entry entry : upperBounds.entrySet()) {
-            result += entry.getKey()+BLANKSPACE + entry.getValue()+ NEWLINE;
+        for (int position = ZERO; position < upperBounds.size(); position ++) {
+            result += upperBounds.getIndex(position)+BLANKSPACE + upperBounds.getValue(position)+ NEWLINE;
                     
         }
-        for (Entry entry : lowerBounds.entrySet()) {
-            result += entry.getKey()+BLANKSPACE + entry.getValue()+ NEWLINE;
+        for (int position = ZERO; position < lowerBounds.size(); position ++) {
+            result += lowerBounds.getIndex(position)+BLANKSPACE + lowerBounds.getValue(position)+ NEWLINE;
                     
         }
         return result;
@@ -115,6 +132,22 @@ public class NodeAttachment implements Serializable{
         endTimeFor_LP_Relaxation_millisec = time;
     }
     
+    public CompressedBasis getBasis(){
+        return basis;
+    }
+    
+    public void setBasis(CompressedBasis basis){
+        this.basis = basis;
+    }
+    
+    public double getParentLPRelaxValue(){
+        return parentLPRelaxValue;
+    }
+    
+    public void setParentLPRelaxValue(double value){
+        this.parentLPRelaxValue = value;
+    }
+    
     public void setEasy(){
         isEasy = true;
     }
@@ -123,13 +156,113 @@ public class NodeAttachment implements Serializable{
         return isEasy  ;
     }
 
-    public Map< String, Double >   getUpperBounds   () {
+    //full bounds of this node
+    public SparseBounds   getUpperBounds   () {
+        flatten();
         return  upperBounds ;
     }
 
-    public Map< String, Double >   getLowerBounds   () {
+    public SparseBounds   getLowerBounds   () {
+        flatten();
         return  lowerBounds ;
     }
+    
+    //number of bounds held by this node itself, not counting the ones shared with its parent
+    public int getLocalBoundCount() {
+        return upperBounds.size() + lowerBounds.size();
+    }
+    
+    //merge a bound into this node only, without flattening
+    public boolean mergeBound(int varIndex, double value, boolean isUpperBound) {
+        return isUpperBound ? upperBounds.merge(varIndex, value) : lowerBounds.merge(varIndex, value);
+    }
+    
+    /**
+     * 
+     * Tighten denseUpperBounds and denseLowerBounds with every bound of this node, by walking up the chain.
+     * Position i of the arrays is the variable with index i. Nothing is flattened or allocated.
+     */
+    public void applyBoundsTo (double[] denseUpperBounds, double[] denseLowerBounds) {
+        for (NodeAttachment node = this; node != null; node = node.parent) {
+            SparseBounds upper = node.upperBounds;
+            for (int position = ZERO; position < upper.size(); position ++) {
+                int index = upper.getIndex(position);
+                denseUpperBounds[index] = Math.min(denseUpperBounds[index], upper.getValue(position));
+            }
+            SparseBounds lower = node.lowerBounds;
+            for (int position = ZERO; position < lower.size(); position ++) {
+                int index = lower.getIndex(position);
+                denseLowerBounds[index] = Math.max(denseLowerBounds[index], lower.getValue(position));
+            }
+        }
+    }
+    
+    /**
+     * 
+     * Replace the chain with the full bounds. 
+     * 
+     * Children of this node are not affected, since our full bounds do not change. 
+     */
+    public void flatten () {
+        if (parent == null) return;
+        
+        SparseBounds[] fullBounds = getFullBounds();
+        upperBounds = fullBounds[ZERO];
+        lowerBounds = fullBounds[ONE];
+        parent = null;
+    }
+    
+    /**
+     * 
+     * A flat copy of this node, with no parent and at depth 0 of its subtree, for a node that moves to a new subtree
+     * while the one it came from is still being solved. Unlike flatten, this node and its chain are not modified.
+     */
+    public NodeAttachment copyToNewSubtree () {
+        SparseBounds[] fullBounds = getFullBounds();
+        NodeAttachment copy = new NodeAttachment();
+        copy.upperBounds = fullBounds[ZERO];
+        copy.lowerBounds = fullBounds[ONE];
+        copy.isEasy = isEasy;
+        copy.distanceFromOriginalRoot = distanceFromOriginalRoot;
+        copy.parentLPRelaxValue = parentLPRelaxValue;
+        return copy;
+    }
+    
+    //new upper and lower bounds holding the bounds of the whole chain
+    private SparseBounds[] getFullBounds () {
+        
+        //the bounds added along the chain, up to the nearest node which is already flat
+        List<NodeAttachment> chain = new ArrayList<NodeAttachment>();
+        NodeAttachment ancestor = this;
+        while (ancestor.parent != null) {
+            chain.add(ancestor);
+            ancestor = ancestor.parent;
+        }
+        SparseBounds addedUpperBounds = new SparseBounds(true);
+        SparseBounds addedLowerBounds = new SparseBounds(false);
+        for (NodeAttachment node : chain) {
+            for (int position = ZERO; position < node.upperBounds.size(); position ++) {
+                addedUpperBounds.merge(node.upperBounds.getIndex(position), node.upperBounds.getValue(position));
+            }
+            for (int position = ZERO; position < node.lowerBounds.size(); position ++) {
+                addedLowerBounds.merge(node.lowerBounds.getIndex(position), node.lowerBounds.getValue(position));
+            }
+        }
+        
+        //one linear merge with the flat ancestor
+        SparseBounds fullUpperBounds = new SparseBounds(ancestor.upperBounds);
+        SparseBounds fullLowerBounds = new SparseBounds(ancestor.lowerBounds);
+        fullUpperBounds.mergeAll(addedUpperBounds);
+        fullLowerBounds.mergeAll(addedLowerBounds);
+        
+        return new SparseBounds[] {fullUpperBounds, fullLowerBounds};
+    }
+    
+    //migrated nodes are always written flat, the parent is not serialized
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        flatten();
+        out.defaultWriteObject();
+    }
 
     
     
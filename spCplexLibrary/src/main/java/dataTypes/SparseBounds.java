@@ -0,0 +1,137 @@
+package dataTypes;
+
+import static constantsAndParams.Constants.*;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * 
+ * @author srini
+ * 
+ * The upper bounds, or the lower bounds, of a node.
+ * 
+ * Variables are identified by their index in the VariableDictionary. Indices are kept sorted, so a lookup
+ * is a binary search and merging two bound lists is a single linear pass. Nothing is boxed.
+ *
+ */
+public class SparseBounds implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    
+    private static final int[] NO_INDICES = new int[ZERO];
+    private static final double[] NO_VALUES = new double[ZERO];
+
+    private final boolean isUpperBound;
+
+    //only the first size entries are in use
+    private int[] indices ;
+    private double[] values ;
+    private int size = ZERO;
+
+    public SparseBounds (boolean isUpperBound) {
+        this.isUpperBound = isUpperBound;
+        indices = NO_INDICES;
+        values = NO_VALUES;
+    }
+
+    //copy, with a little room for the branching bounds that are about to be merged in
+    public SparseBounds (SparseBounds other) {
+        isUpperBound = other.isUpperBound;
+        size = other.size;
+        indices = Arrays.copyOf(other.indices, size + TWO);
+        values = Arrays.copyOf(other.values, size + TWO);
+    }
+
+    public boolean isUpperBound() {
+        return isUpperBound;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //the variable index of the n-th bound, in ascending order of variable index
+    public int getIndex(int position) {
+        return indices[position];
+    }
+
+    public double getValue(int position) {
+        return values[position];
+    }
+
+    public boolean contains(int index) {
+        return Arrays.binarySearch(indices, ZERO, size, index) >= ZERO;
+    }
+
+    //the bound on this variable, or missingValue if there is none
+    public double get(int index, double missingValue) {
+        int position = Arrays.binarySearch(indices, ZERO, size, index);
+        return position >= ZERO ? values[position] : missingValue;
+    }
+
+    //merge this bound into existing bounds, return true if added or merged, false if no effect
+    public boolean merge(int index, double value) {
+        boolean isMerged = false;
+
+        int position = Arrays.binarySearch(indices, ZERO, size, index);
+        if (position >= ZERO) {
+            if (isTighter(value, values[position])) {
+                //update the more restrictive bound
+                values[position] = value;
+                isMerged = true;
+            }
+        } else {
+            //add the bound
+            insert(-position - ONE, index, value);
+            isMerged = true;
+        }
+
+        return isMerged;
+    }
+    
+    //merge every bound in other into this, in one pass over both sorted lists
+    public void mergeAll(SparseBounds other) {
+
+        int[] mergedIndices = new int[size + other.size];
+        double[] mergedValues = new double[size + other.size];
+        int mine = ZERO, theirs = ZERO, merged = ZERO;
+
+        while (mine < size || theirs < other.size) {
+            if (theirs == other.size || (mine < size && indices[mine] < other.indices[theirs])) {
+                mergedIndices[merged] = indices[mine];
+                mergedValues[merged++] = values[mine++];
+            } else if (mine == size || other.indices[theirs] < indices[mine]) {
+                mergedIndices[merged] = other.indices[theirs];
+                mergedValues[merged++] = other.values[theirs++];
+            } else {
+                mergedIndices[merged] = indices[mine];
+                mergedValues[merged++] = isTighter(other.values[theirs], values[mine]) ? other.values[theirs] : values[mine];
+                mine ++;
+                theirs ++;
+            }
+        }
+
+        indices = mergedIndices;
+        values = mergedValues;
+        size = merged;
+    }
+    
+    private boolean isTighter(double value, double existing) {
+        return isUpperBound ? value < existing : value > existing;
+    }
+
+    private void insert(int position, int index, double value) {
+        if (size == indices.length) {
+            int capacity = Math.max(SIX, TWO*size);
+            indices = Arrays.copyOf(indices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(indices, position, indices, position + ONE, size - position);
+        System.arraycopy(values, position, values, position + ONE, size - position);
+        indices[position] = index;
+        values[position] = value;
+        size ++;
+    }
+
+}
@@ -2,9 +2,11 @@ package dataTypes;
 
 import static constantsAndParams.Constants.*;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex.NodeId;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 
@@ -12,6 +14,9 @@ import java.util.*;
  * 
  * This object holds all the meta data associated with the ActiveSubtree.
  * Since we cannot traverse the ILOCPLEX object at will, we store relevant information here.
+ * 
+ * The callbacks of several CPLEX threads, and idle workers of a parallel driver, use it at the same time, so the
+ * leaf maps are concurrent and the flags volatile.
  *
  */
 public class SubtreeMetaData {
@@ -21,23 +26,48 @@ public class SubtreeMetaData {
   
     //keeps note of all the INT variables in the model
     //used  to find bound tightenings when spawning kids.
+    //These are in VariableDictionary order, i.e. intVars[i] is the variable with index i
     private final IloNumVar[] intVars ;  
     
+    //the constraints of the model, used to record the LP basis of migrated nodes
+    private final IloRange[] ranges;
+    
+    //bounds of every variable in intVars when the subtree was created, i.e. the model bounds with the 
+    //root node attachment applied. Nodes only record their changes to these bounds.
+    private final double[] originalUpperBounds;
+    private final double[] originalLowerBounds;
+    
+    //variable names to indices, shared by all subtrees of the model
+    private final VariableDictionary dictionary;
+    
     //keep note of the root Node Attachment used to create this subtree
     private final NodeAttachment rootNodeAttachment ;
     
     //sometimes we find that the entire subtree can be discarded
-    private boolean canDiscardEntireSubTree  = false;  
+    private volatile boolean canDiscardEntireSubTree  = false;  
         
     //keep a list of unsolved leaf nodes.
     //These may be useful later on, when making farming decisions.
     //These are child nodes that were spawned, but never picked up for solving.
-    private Map<NodeId, NodeAttachment> unsolvedLeafNodes = new HashMap<NodeId, NodeAttachment>();
+    //Idle workers of a parallel driver may steal them while this subtree is being solved.
+    //CPLEX has no number for a node in the branch callback, so the key is the NodeId.
+    private final Map<NodeId, NodeAttachment> unsolvedLeafNodes = new ConcurrentHashMap<NodeId, NodeAttachment>();
     
-    public SubtreeMetaData( NodeAttachment attachment, IloNumVar[] intVars){
+    //leafs which have been stolen and are solved in another subtree, CPLEX still has them and they must be pruned 
+    private final Set<NodeId> stolenLeafNodes = ConcurrentHashMap.newKeySet();
+    
+    //until the root branches, the root node attachment is the only open node
+    private volatile boolean hasRootBranched = false;
+    
+    public SubtreeMetaData( NodeAttachment attachment, IloNumVar[] intVars, IloRange[] ranges, 
+            VariableDictionary dictionary, double[] originalUpperBounds, double[] originalLowerBounds){
         guid = UUID.randomUUID().toString();
         rootNodeAttachment=attachment;
         this.intVars= intVars;
+        this.ranges = ranges;
+        this.dictionary = dictionary;
+        this.originalUpperBounds = originalUpperBounds;
+        this.originalLowerBounds = originalLowerBounds;
     }
     
     public String getGUID(){
@@ -48,6 +78,22 @@ public class SubtreeMetaData {
         return intVars;
     }
     
+    public IloRange[] getRanges (){
+        return ranges;
+    }
+    
+    public double[] getOriginalUpperBounds (){
+        return originalUpperBounds;
+    }
+    
+    public double[] getOriginalLowerBounds (){
+        return originalLowerBounds;
+    }
+    
+    public VariableDictionary getVariableDictionary(){
+        return dictionary;
+    }
+    
     public NodeAttachment getRootNodeAttachment(){
         return rootNodeAttachment;
     }
@@ -60,8 +106,60 @@ public class SubtreeMetaData {
         unsolvedLeafNodes.remove(nodeID);
     }
     
+    //a copy, the map may change while the caller looks at it
     public Map<NodeId, NodeAttachment> getUnsolvedLeafNodes () {
-        return Collections.unmodifiableMap(unsolvedLeafNodes);
+        return new HashMap<NodeId, NodeAttachment>(unsolvedLeafNodes);
+    }
+    
+    public int getUnsolvedLeafNodeCount () {
+        return unsolvedLeafNodes.size();
+    }
+    
+    /**
+     * 
+     * Take up to count unsolved leafs away from this subtree, best parent LP bound first.
+     * Returns flat copies of them, which can be the roots of new subtrees. The leafs themselves stay in CPLEX until
+     * the branch handler prunes them, see isStolen.
+     * A leaf CPLEX picks up for solving while it is being stolen is left to CPLEX.
+     */
+    public List<NodeAttachment> stealLeafNodes (int count) {
+        
+        List<Map.Entry<NodeId, NodeAttachment>> leafs = new ArrayList<Map.Entry<NodeId, NodeAttachment>>(unsolvedLeafNodes.entrySet());
+        Collections.sort(leafs, new Comparator<Map.Entry<NodeId, NodeAttachment>>() {
+            public int compare(Map.Entry<NodeId, NodeAttachment> one, Map.Entry<NodeId, NodeAttachment> other) {
+                double oneBound = one.getValue().getParentLPRelaxValue();
+                double otherBound = other.getValue().getParentLPRelaxValue();
+                return isMaximization ? Double.compare(otherBound, oneBound) : Double.compare(oneBound, otherBound);
+            }
+        });
+        
+        List<NodeAttachment> stolen = new ArrayList<NodeAttachment>();
+        for (int index = ZERO; index < leafs.size() && stolen.size() < count; index ++) {
+            NodeId nodeID = leafs.get(index).getKey();
+            //the node handler removes a leaf when CPLEX picks it, whoever removes it first has it
+            //it is marked stolen only after, a leaf CPLEX picks in between is solved twice, but never lost
+            if (unsolvedLeafNodes.remove(nodeID) == null) continue;
+            stolenLeafNodes.add(nodeID);
+            stolen.add(leafs.get(index).getValue().copyToNewSubtree());
+        }
+        return stolen;
+    }
+    
+    public boolean isStolen (NodeId nodeID) {
+        return stolenLeafNodes.contains(nodeID);
+    }
+    
+    //a stolen leaf has been pruned
+    public void removeStolenLeafNode (NodeId nodeID) {
+        stolenLeafNodes.remove(nodeID);
+    }
+    
+    public void setRootBranched() {
+        hasRootBranched = true;
+    }
+    
+    public boolean hasRootBranched() {
+        return hasRootBranched;
     }
     
     public void setEntireTreeDiscardable() {
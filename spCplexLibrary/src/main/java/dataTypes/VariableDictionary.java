@@ -0,0 +1,68 @@
+package dataTypes;
+
+import static constantsAndParams.Constants.*;
+import ilog.concert.IloException;
+import ilog.concert.IloLPMatrix;
+import ilog.concert.IloNumVar;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 
+ * @author srini
+ * 
+ * Maps the variable names of the model to dense ints, and back.
+ * 
+ * The index of a variable is its position in the LP matrix of the imported model, so every ActiveSubtree
+ * built from the same model agrees on it. Node attachments refer to variables by this index.
+ *
+ */
+public class VariableDictionary {
+    
+    //one dictionary per model file, shared by every ActiveSubtree
+    private static final Map<String, VariableDictionary> dictionaries = new HashMap<String, VariableDictionary>();
+
+    private final String[] names;
+    private final Map<String, Integer> indices;
+
+    public VariableDictionary (String[] names) {
+        this.names = names;
+        indices = new HashMap<String, Integer>(TWO*names.length);
+        for (int index = ZERO; index < names.length; index ++){
+            indices.put(names[index], index);
+        }
+    }
+    
+    public static synchronized VariableDictionary getInstance (String modelFilename, IloLPMatrix lpMatrix) throws IloException {
+        VariableDictionary dictionary = dictionaries.get(modelFilename);
+        if (dictionary == null) {
+            
+            //WARNING : we assume that every variable appears in at least 1 constraint or variable bound
+            IloNumVar[] variables = lpMatrix.getNumVars();
+            String[] names = new String[variables.length];
+            for (int index = ZERO; index < variables.length; index ++){
+                names[index] = variables[index].getName();
+            }
+            
+            dictionary = new VariableDictionary(names);
+            dictionaries.put(modelFilename, dictionary);
+        }
+        return dictionary;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    //return -1 if this variable is not in the model
+    public int indexOf (String varName) {
+        Integer index = indices.get(varName);
+        return index == null ? MINUS_ONE : index;
+    }
+
+    public String nameOf (int index) {
+        return names[index];
+    }
+
+}
@@ -0,0 +1,232 @@
+package drivers;
+
+import static constantsAndParams.Constants.*;
+import static constantsAndParams.Parameters.*;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import dataTypes.ActiveSubtree;
+import dataTypes.NodeAttachment;
+import dataTypes.Solution;
+import utilities.ModelCache;
+import utilities.SubtreePool;
+
+/**
+ *
+ * @author srini
+ *
+ * Solves the active subtrees of the SimpleDriver on several threads at once.
+ *
+ * Every worker takes a subtree, or turns a farmed node into a new subtree, solves it for one time slice with
+ * the given number of CPLEX threads, one unless told otherwise, and puts it back unless it is finished.
+ * The workers already keep the cores busy, so more CPLEX threads per worker only pay with few workers. The subtrees are independent,
+ * the workers only share the SubtreePool, which bounds the subtrees held in memory, and the best known incumbent.
+ * A worker which finds no subtree waiting steals leafs from the busiest subtree being solved, so that towards the
+ * end of the search the workers do not sit idle while a few large subtrees finish.
+ * The incumbent value is kept as the bits of a double in an AtomicLong, and only ever replaced by a better one,
+ * so reading it before a solve needs no lock.
+ *
+ * usage : ParallelDriver [number of workers] [CPLEX threads per worker] [time slice in seconds]
+ *
+ */
+public class ParallelDriver {
+
+    //how long an idle worker waits before looking for work again, while others may still farm nodes
+    private static final long IDLE_WAIT_MILLIS = 50;
+
+    private final int numWorkers;
+    private final int threadsPerWorker;
+    private final double timeSliceInSeconds;
+
+    //subtrees which are not finished, and nodes not yet turned into subtrees ; the search is over when it is empty
+    private SubtreePool pool;
+
+    private final AtomicLong bestKnownIncumbentBits =
+            new AtomicLong(Double.doubleToLongBits(isMaximization ? MINUS_INFINITY : PLUS_INFINITY));
+    //the variable values of the best known incumbent, the MIP start of every new subtree
+    private final AtomicReference<Solution> bestKnownIncumbent = new AtomicReference<Solution>();
+
+    private final AtomicLong timeSlicesSolved = new AtomicLong(ZERO);
+    private final AtomicLong subtreesCompleted = new AtomicLong(ZERO);
+
+    public ParallelDriver(int numWorkers, int threadsPerWorker, double timeSliceInSeconds) {
+        this.numWorkers = numWorkers;
+        this.threadsPerWorker = threadsPerWorker;
+        this.timeSliceInSeconds = timeSliceInSeconds;
+    }
+
+    public static void main(String[] args) {
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int numWorkers = args.length > ZERO ? Integer.parseInt(args[ZERO]) : cores;
+        int threadsPerWorker = args.length > ONE ? Integer.parseInt(args[ONE]) : ONE;
+        double timeSliceInSeconds = args.length > TWO ? Double.parseDouble(args[TWO]) : SIX;
+
+        try {
+
+            System.out.println("Started at " + LocalDateTime.now() + " with " + numWorkers + " workers of " +
+                    threadsPerWorker + " CPLEX threads");
+
+            ParallelDriver driver = new ParallelDriver(numWorkers, threadsPerWorker, timeSliceInSeconds);
+            boolean isComplete = driver.solve(new NodeAttachment(), Long.MAX_VALUE);
+
+            System.out.println("search complete " + isComplete + ", time slices solved " + driver.getTimeSlicesSolved() +
+                    ", subtrees completed " + driver.getSubtreesCompleted());
+            System.out.println("best Incumbent " + driver.getBestKnownIncumbentValue());
+            if (driver.getBestKnownIncumbent() != null) System.out.println(driver.getBestKnownIncumbent().toString());
+
+            System.out.println(driver.getPoolStatistics());
+
+            System.out.println(ModelCache.getStatistics());
+            System.out.println("Completed at " + LocalDateTime.now());
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *
+     * Solve the subtree rooted at the given node, until it is fully solved or the time limit is up.
+     * Returns false if the time limit stopped the search, the subtrees left over are ended.
+     */
+    public boolean solve(NodeAttachment root, long timeLimitMillis) throws Exception {
+
+        long deadline = timeLimitMillis == Long.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis() + timeLimitMillis;
+
+        pool = new SubtreePool(MAX_RESIDENT_SUBTREES, MAX_RESIDENT_OPEN_NODES, MAX_LEAFS_PER_STEAL, SPILL_DIRECTORY);
+        pool.addNode(root);
+
+        ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int index = ZERO; index < numWorkers; index ++) {
+            workers.add(executor.submit(new Worker(deadline)));
+        }
+        executor.shutdown();
+
+        try {
+            //rethrow the first failure of a worker
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        boolean isComplete = pool.isEmpty();
+        pool.close();
+        return isComplete;
+    }
+
+    public double getBestKnownIncumbentValue() {
+        return Double.longBitsToDouble(bestKnownIncumbentBits.get());
+    }
+
+    public Solution getBestKnownIncumbent() {
+        return bestKnownIncumbent.get();
+    }
+
+    public long getTimeSlicesSolved() {
+        return timeSlicesSolved.get();
+    }
+
+    public long getSubtreesCompleted() {
+        return subtreesCompleted.get();
+    }
+
+    //memory use and spilling of the last solve
+    public String getPoolStatistics() {
+        return pool == null ? "" : pool.getStatistics();
+    }
+
+    //replace the best known incumbent if the solution of this subtree is better, without locking
+    //the variable values are only pulled from CPLEX if the solution is better
+    private void offerIncumbent(ActiveSubtree tree) throws Exception {
+        double value = tree.getObjectiveValue();
+        while (true) {
+            long currentBits = bestKnownIncumbentBits.get();
+            double current = Double.longBitsToDouble(currentBits);
+            boolean isBetter = isMaximization ? value > current : value < current;
+            if (!isBetter) return;
+            if (bestKnownIncumbentBits.compareAndSet(currentBits, Double.doubleToLongBits(value))) break;
+        }
+
+        //a better solution may have been offered in the meantime, keep the solution matching the best value
+        Solution solution = tree.getSolution();
+        while (true) {
+            Solution current = bestKnownIncumbent.get();
+            if (current != null) {
+                double currentValue = current.getObjectiveValue();
+                if (isMaximization ? currentValue >= value : currentValue <= value) return;
+            }
+            if (bestKnownIncumbent.compareAndSet(current, solution)) return;
+        }
+    }
+
+    private class Worker implements Callable<Void> {
+
+        private final long deadline;
+
+        Worker(long deadline) {
+            this.deadline = deadline;
+        }
+
+        public Void call() throws Exception {
+
+            while (!pool.isEmpty() && System.currentTimeMillis() < deadline && !Thread.currentThread().isInterrupted()) {
+
+                ActiveSubtree tree = pool.next(bestKnownIncumbent.get());
+                //nothing is waiting, take leafs from a subtree another worker is solving
+                if (tree == null) tree = pool.steal(bestKnownIncumbent.get());
+                if (tree == null) {
+                    //the other workers are still solving, and may farm out more nodes
+                    Thread.sleep(IDLE_WAIT_MILLIS);
+                    continue;
+                }
+
+                solveTimeSlice(tree);
+            }
+
+            return null;
+        }
+
+        private void solveTimeSlice(ActiveSubtree tree) throws Exception {
+
+            boolean isFinished = false;
+            try {
+                tree.setThreadBudget(threadsPerWorker);
+                List<NodeAttachment> farmedOutNodes =
+                        tree.solve(timeSliceInSeconds, false, getBestKnownIncumbentValue(), true);
+                timeSlicesSolved.incrementAndGet();
+
+                //add the farmed nodes before this subtree could be counted as done
+                pool.addNodes(farmedOutNodes);
+
+                //a feasible solution is offered too, it would be lost if the subtree were evicted from the pool
+                if (tree.isOptimalOrFeasible()) offerIncumbent(tree);
+                isFinished = tree.isOptimal() || tree.isUnFeasible() || tree.isEntireSubtreeDiscardable();
+            } catch (Exception e) {
+                isFinished = true;
+                throw e;
+            } finally {
+                if (isFinished) {
+                    pool.finish(tree);
+                    subtreesCompleted.incrementAndGet();
+                } else {
+                    pool.putBack(tree, getBestKnownIncumbentValue());
+                }
+            }
+        }
+    }
+
+}
@@ -8,8 +8,10 @@ import java.util.*;
 
 import dataTypes.ActiveSubtree;
 import dataTypes.NodeAttachment;
+import dataTypes.Solution;
 import ilog.concert.IloException;
 import ilog.cplex.IloCplex;
+import utilities.ModelCache;
 import static constantsAndParams.Constants.*;
 import static constantsAndParams.Parameters.*;
 
@@ -19,8 +21,8 @@ public class SimpleDriver {
         int TREES_LEFT=  ZERO;
         for (int index = ZERO ; index < activeSubtreeList.size(); index ++){
             ActiveSubtree tree = activeSubtreeList.get(index);
-            if (tree.getSolution().isOptimal()) continue ;
-            if (tree.getSolution().isUnFeasible()) continue ;
+            if (tree.isOptimal()) continue ;
+            if (tree.isUnFeasible()) continue ;
             TREES_LEFT++;
         }
         return TREES_LEFT;
@@ -30,6 +32,8 @@ public class SimpleDriver {
         
         double bestKnownIncumbentValue = PLUS_INFINITY;
         int bestKnownIncumbentIndex = -ONE;
+        //the variable values of the best known incumbent, the MIP start of every new subtree
+        Solution bestKnownIncumbent = null;
         Random randomGenerator = new Random(ONE);
        
         try {
@@ -47,8 +51,8 @@ public class SimpleDriver {
                 //solve for some time
                 for (int index = ZERO ; index < activeSubtreeList.size(); index ++){
                     ActiveSubtree mip = activeSubtreeList.get(index);
-                    if (mip.getSolution().isOptimal()) continue ;
-                    if (mip.getSolution().isUnFeasible()) continue ;
+                    if (mip.isOptimal()) continue ;
+                    if (mip.isUnFeasible()) continue ;
                     if (mip.isEntireSubtreeDiscardable()) continue ;
                    
                     farmedOutNodes.addAll(
@@ -60,16 +64,19 @@ public class SimpleDriver {
                 //update best known incumbent and its index
                 for (int index = ZERO ; index < activeSubtreeList.size(); index ++){
                     ActiveSubtree mip = activeSubtreeList.get(index);
-                    if (mip.getSolution().isOptimal() && mip.getSolution().getObjectiveValue()<bestKnownIncumbentValue) {
+                    if (mip.isOptimal() && mip.getObjectiveValue()<bestKnownIncumbentValue) {
                         bestKnownIncumbentIndex = index;
-                        bestKnownIncumbentValue = mip.getSolution().getObjectiveValue();
+                        bestKnownIncumbentValue = mip.getObjectiveValue();
+                        bestKnownIncumbent = mip.getSolution();
                     }
                 }
                 
                 //  convert   farmed out nodes to AST, and add to AST-list
                 for (int index = ZERO ; index < farmedOutNodes.size(); index ++){
                     NodeAttachment node = farmedOutNodes.get(index);
-                    activeSubtreeList.add(new ActiveSubtree(node));
+                    ActiveSubtree tree = new ActiveSubtree(node);
+                    tree.setMipStart(bestKnownIncumbent);
+                    activeSubtreeList.add(tree);
                 }
                 
                 treesleft=treesLeft (  activeSubtreeList);
@@ -81,6 +88,7 @@ public class SimpleDriver {
             
             System.out.println( activeSubtreeList.get(bestKnownIncumbentIndex).getSolution().toString());
             
+            System.out.println(ModelCache.getStatistics());
             System.out.println("Completed at "+LocalDateTime.now());
             
             
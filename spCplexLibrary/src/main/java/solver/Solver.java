@@ -1,6 +1,7 @@
 package solver;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 
 import callbacks.BranchHandler;
@@ -32,7 +33,7 @@ public class Solver {
         
         IloLPMatrix lpMatrix = (IloLPMatrix) cplex .LPMatrixIterator().next();
         branchHandler = new BranchHandler(      metaData   );
-        nodeHandler = new  NodeHandler (    metaData) ;
+        nodeHandler = new  NodeHandler (    metaData, branchHandler) ;
         
         this.cplex.use(branchHandler);
         this.cplex.use(nodeHandler);   
@@ -47,10 +48,49 @@ public class Solver {
         
         //MIP gap
         if ( RELATIVE_MIP_GAP>ZERO) cplex.setParam( IloCplex.Param.MIP.Tolerances.MIPGap, RELATIVE_MIP_GAP);
+        
+        setThreads(CPLEX_THREADS_PER_SUBTREE);
 
         //others
     }
     
+    /**
+     * 
+     * The node attachments of all the open nodes of the tree, found by a solve that stops at the first node selection.
+     * A node offered for migration is left out if it was chosen, since it is solved somewhere else.
+     * Returns null if the open nodes could not all be found, the tree is then unchanged.
+     * If the root has not branched yet, the only open node is the root.
+     */
+    public List<NodeAttachment> drainOpenNodes(double bestKnownGlobalOptimum, boolean wasCandidateChosenForMigration) 
+            throws IloException {
+        
+        if (!metaData.hasRootBranched()) return Collections.singletonList(metaData.getRootNodeAttachment());
+        
+        branchHandler.reset( false,   wasCandidateChosenForMigration , bestKnownGlobalOptimum   );
+        
+        //one thread, so that no node is being solved when the open nodes are listed
+        int threads = cplex.getParam(IloCplex.Param.Threads);
+        cplex.setParam(IloCplex.Param.Threads, ONE);
+        nodeHandler.startDrain();
+        cplex.solve();
+        nodeHandler.stopDrain();
+        cplex.setParam(IloCplex.Param.Threads, threads);
+        
+        return nodeHandler.getDrainedNodes();
+    }
+    
+    /**
+     * 
+     * With our callbacks installed, CPLEX only searches in parallel if told how many threads to use, 0 is all the cores.
+     * The callbacks are thread safe. The search is opportunistic, since farming depends on the clock anyway.
+     */
+    public void setThreads(int threads) throws IloException {
+        int numThreads = threads > ZERO ? threads : Runtime.getRuntime().availableProcessors();
+        cplex.setParam(IloCplex.Param.Threads, numThreads);
+        cplex.setParam(IloCplex.Param.ParallelMode, 
+                numThreads == ONE ? IloCplex.ParallelMode.Auto : IloCplex.ParallelMode.Opportunistic);
+    }
+    
     public boolean isEntireSubtreeDiscardable() {
         return this.branchHandler.isEntireSubtreeDiscardable();
     }
@@ -0,0 +1,233 @@
+package utilities;
+
+import static constantsAndParams.Constants.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import dataTypes.NodeAttachment;
+import dataTypes.SparseBounds;
+import dataTypes.VariableDictionary;
+import ilog.concert.IloException;
+import ilog.concert.IloLPMatrix;
+import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
+import ilog.cplex.IloCplex;
+
+/**
+ *
+ * @author srini
+ *
+ * Per JVM cache of imported models, so that the model file is not parsed again for every ActiveSubtree.
+ *
+ * An IloCplex is checked out with the original bounds of the model in effect. When its subtree is done, it is
+ * released : the bounds changed by the subtree's root node are put back, and the next checkout reuses it.
+ *
+ * If no released IloCplex is available, a new one is imported. The first import of a model also writes a binary
+ * .sav copy of it, which is much faster to import than an LP or MPS file.
+ *
+ */
+public class ModelCache {
+
+    private static final String SAV_EXTENSION = ".sav";
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private static final Map<String, ModelTemplate> templates = new HashMap<String, ModelTemplate>();
+
+    //the variables of every IloCplex handed out by the cache, in dictionary order
+    private static final Map<IloCplex, IloNumVar[]> variablesOfInstance = new IdentityHashMap<IloCplex, IloNumVar[]>();
+    //and their constraints, in matrix order
+    private static final Map<IloCplex, IloRange[]> rangesOfInstance = new IdentityHashMap<IloCplex, IloRange[]>();
+
+    private static long hits = ZERO;
+    private static long misses = ZERO;
+    private static long importNanos = ZERO;
+
+    //what we know about a model file after importing it once
+    private static class ModelTemplate {
+        String importFilename;
+        VariableDictionary dictionary;
+        double[] originalUpperBounds;
+        double[] originalLowerBounds;
+        Deque<IloCplex> idleInstances = new ArrayDeque<IloCplex>();
+    }
+
+    /**
+     *
+     * An IloCplex with the model loaded and the original bounds in effect
+     */
+    public static synchronized IloCplex checkout (String modelFilename) throws IloException {
+
+        ModelTemplate template = templates.get(modelFilename);
+        if (template != null && !template.idleInstances.isEmpty()) {
+            hits ++;
+            return template.idleInstances.pop();
+        }
+
+        misses ++;
+        long start = System.nanoTime();
+        IloCplex cplex = new IloCplex();
+        cplex.importModel(template == null ? modelFilename : template.importFilename);
+        importNanos += System.nanoTime() - start;
+
+        IloLPMatrix lpMatrix = (IloLPMatrix)cplex.LPMatrixIterator().next();
+        IloNumVar[] variables = lpMatrix.getNumVars();
+        variablesOfInstance.put(cplex, variables);
+        rangesOfInstance.put(cplex, lpMatrix.getRanges());
+
+        if (template == null) {
+            templates.put(modelFilename, createTemplate(modelFilename, cplex, variables));
+        }
+
+        return cplex;
+    }
+
+    /**
+     *
+     * Give back an IloCplex to which the bounds of attachment were applied.
+     * The IloCplex must not be used by the caller after this. If it cannot be reset, it is ended instead.
+     */
+    public static synchronized void release (String modelFilename, IloCplex cplex, NodeAttachment attachment) {
+
+        ModelTemplate template = templates.get(modelFilename);
+        IloNumVar[] variables = variablesOfInstance.get(cplex);
+
+        try {
+            cplex.clearCallbacks();
+            //a MIP start may not fit the bounds of the next subtree
+            if (cplex.getNMIPStarts() > ZERO) cplex.deleteMIPStarts(ZERO, cplex.getNMIPStarts());
+            resetBounds(variables, attachment.getUpperBounds(), template.originalUpperBounds);
+            resetBounds(variables, attachment.getLowerBounds(), template.originalLowerBounds);
+            template.idleInstances.push(cplex);
+        } catch (IloException ex) {
+            //do not reuse this instance
+            System.err.println(ex);
+            variablesOfInstance.remove(cplex);
+            rangesOfInstance.remove(cplex);
+            cplex.end();
+        }
+    }
+
+    /**
+     *
+     * The variables of an IloCplex, in dictionary order, without asking CPLEX if the IloCplex came from this cache
+     */
+    public static synchronized IloNumVar[] getVariables (IloCplex cplex) throws IloException {
+        IloNumVar[] variables = variablesOfInstance.get(cplex);
+        return variables != null ? variables : ((IloLPMatrix)cplex.LPMatrixIterator().next()).getNumVars();
+    }
+
+    /**
+     *
+     * The constraints of an IloCplex, in matrix order, without asking CPLEX if the IloCplex came from this cache
+     */
+    public static synchronized IloRange[] getRanges (IloCplex cplex) throws IloException {
+        IloRange[] ranges = rangesOfInstance.get(cplex);
+        return ranges != null ? ranges : ((IloLPMatrix)cplex.LPMatrixIterator().next()).getRanges();
+    }
+
+    public static synchronized VariableDictionary getVariableDictionary (String modelFilename) {
+        return templates.get(modelFilename).dictionary;
+    }
+
+    //the bounds in the model file, position i is the variable with index i. Callers must not modify these.
+    public static synchronized double[] getOriginalUpperBounds (String modelFilename) {
+        return templates.get(modelFilename).originalUpperBounds;
+    }
+
+    public static synchronized double[] getOriginalLowerBounds (String modelFilename) {
+        return templates.get(modelFilename).originalLowerBounds;
+    }
+
+    /**
+     *
+     * End every idle IloCplex
+     */
+    public static synchronized void clear () {
+        for (ModelTemplate template : templates.values()) {
+            for (IloCplex cplex : template.idleInstances) {
+                variablesOfInstance.remove(cplex);
+                rangesOfInstance.remove(cplex);
+                cplex.end();
+            }
+            template.idleInstances.clear();
+        }
+    }
+
+    /**
+     *
+     * End idle IloCplex objects, keeping at most maxIdleInstances of every model
+     */
+    public static synchronized void trim (int maxIdleInstances) {
+        for (ModelTemplate template : templates.values()) {
+            while (template.idleInstances.size() > maxIdleInstances) {
+                IloCplex cplex = template.idleInstances.pop();
+                variablesOfInstance.remove(cplex);
+                rangesOfInstance.remove(cplex);
+                cplex.end();
+            }
+        }
+    }
+
+    public static synchronized long getHits () {
+        return hits;
+    }
+
+    public static synchronized long getMisses () {
+        return misses;
+    }
+
+    //total time spent importing models
+    public static synchronized long getImportMillis () {
+        return importNanos/NANOS_PER_MILLI;
+    }
+
+    public static synchronized String getStatistics () {
+        return "model cache hits " + hits + BLANKSPACE + "misses " + misses + BLANKSPACE +
+               "import millis " + importNanos/NANOS_PER_MILLI;
+    }
+
+    private static ModelTemplate createTemplate (String modelFilename, IloCplex cplex, IloNumVar[] variables)
+            throws IloException {
+
+        ModelTemplate template = new ModelTemplate();
+        template.dictionary = VariableDictionary.getInstance(modelFilename, (IloLPMatrix)cplex.LPMatrixIterator().next());
+        template.originalUpperBounds = UtilityLibrary.getVariableBounds(variables, true);
+        template.originalLowerBounds = UtilityLibrary.getVariableBounds(variables, false);
+
+        template.importFilename = modelFilename;
+        if (!modelFilename.toLowerCase().endsWith(SAV_EXTENSION)) {
+            try {
+                File savFile = File.createTempFile("model", SAV_EXTENSION);
+                savFile.deleteOnExit();
+                cplex.exportModel(savFile.getAbsolutePath());
+                template.importFilename = savFile.getAbsolutePath();
+            } catch (IOException ex) {
+                //keep importing the original file
+                System.err.println(ex);
+            } catch (IloException ex) {
+                System.err.println(ex);
+            }
+        }
+
+        return template;
+    }
+
+    private static void resetBounds (IloNumVar[] variables, SparseBounds bounds, double[] originalBounds)
+            throws IloException {
+        for (int position = ZERO; position < bounds.size(); position ++){
+            int index = bounds.getIndex(position);
+            if (bounds.isUpperBound()) {
+                variables[index].setUB(originalBounds[index]);
+            } else {
+                variables[index].setLB(originalBounds[index]);
+            }
+        }
+    }
+
+}
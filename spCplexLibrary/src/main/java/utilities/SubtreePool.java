@@ -0,0 +1,395 @@
+package utilities;
+
+import static constantsAndParams.Constants.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import dataTypes.ActiveSubtree;
+import dataTypes.NodeAttachment;
+import dataTypes.Solution;
+import dataTypes.SparseBounds;
+
+/**
+ *
+ * @author srini
+ *
+ * The subtrees of a driver, with a bound on how many of them hold a live IloCplex at once.
+ *
+ * Subtrees are handed out least recently scheduled first, and given back after they have been solved for a while.
+ * New nodes wait in the pool as node attachments, and become subtrees when there is room for one more.
+ * When the resident subtrees are more than maxResidentSubtrees, or their open nodes more than maxResidentOpenNodes,
+ * the least recently scheduled subtree is evicted : its open nodes are written to a file in the spill directory,
+ * and it is ended. Spilled nodes are read back, one file at a time, once no other new node is waiting.
+ * Files are written and read without holding the lock of the pool, so that the other workers carry on meanwhile.
+ *
+ * A worker which finds nothing to do can steal the best bound leafs of the busiest subtree being solved, see steal.
+ *
+ * Drivers using the pool must take every node offered for migration, as the SimpleDriver does.
+ * All methods may be called from several threads.
+ *
+ */
+public class SubtreePool {
+
+    private static final String SPILL_PREFIX = "spill";
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final int maxResidentSubtrees;
+    private final long maxResidentOpenNodes;
+    private final int maxLeafsPerSteal;
+    private final File spillDirectory;
+
+    //resident subtrees which are not handed out, least recently scheduled first
+    private final Deque<ActiveSubtree> idleSubtrees = new ArrayDeque<ActiveSubtree>();
+    //resident subtrees handed out, or being created or evicted
+    private int busySubtrees = ZERO;
+    //the subtrees handed out, which leafs can be stolen from
+    private final Set<ActiveSubtree> scheduledSubtrees = new HashSet<ActiveSubtree>();
+
+    //nodes which are not subtrees yet, and files of spilled nodes not yet read back
+    private final Deque<NodeAttachment> waitingNodes = new ArrayDeque<NodeAttachment>();
+    private final Deque<File> spillFiles = new ArrayDeque<File>();
+    //spill files taken by a worker, whose nodes are not waiting yet
+    private int spillFilesBeingRead = ZERO;
+    private long nodesOnDisk = ZERO;
+
+    private long peakResidentSubtrees = ZERO;
+    private long evictions = ZERO;
+    private long failedEvictions = ZERO;
+    private long nodesSpilled = ZERO;
+    private long bytesSpilled = ZERO;
+    private long spillNanos = ZERO;
+    private long nodesRehydrated = ZERO;
+    private long rehydrateNanos = ZERO;
+    private long steals = ZERO;
+    private long leafsStolen = ZERO;
+
+    public SubtreePool (int maxResidentSubtrees, long maxResidentOpenNodes, int maxLeafsPerSteal, String spillDirectory) 
+            throws IOException {
+        this.maxResidentSubtrees = maxResidentSubtrees;
+        this.maxResidentOpenNodes = maxResidentOpenNodes;
+        this.maxLeafsPerSteal = maxLeafsPerSteal;
+        this.spillDirectory = Files.createTempDirectory(new File(spillDirectory).toPath(), SPILL_PREFIX).toFile();
+        this.spillDirectory.deleteOnExit();
+    }
+
+    public synchronized void addNode (NodeAttachment node) {
+        waitingNodes.add(node);
+    }
+
+    public synchronized void addNodes (Collection<NodeAttachment> nodes) {
+        waitingNodes.addAll(nodes);
+    }
+
+    /**
+     *
+     * A subtree to solve, a new one if there is room for it, otherwise the least recently scheduled one.
+     * New subtrees get the incumbent as their MIP start.
+     * Returns null if every subtree is handed out and no node is waiting.
+     */
+    public ActiveSubtree next (Solution incumbent) throws Exception {
+
+        NodeAttachment node = null;
+        File spillFile = null;
+        synchronized (this) {
+            if (getResidentCount() < maxResidentSubtrees) {
+                if (waitingNodes.isEmpty() && !spillFiles.isEmpty()) {
+                    spillFile = spillFiles.poll();
+                    spillFilesBeingRead ++;
+                }
+                node = waitingNodes.poll();
+            }
+            if (node == null && spillFile == null) {
+                ActiveSubtree tree = idleSubtrees.poll();
+                if (tree != null) {
+                    busySubtrees ++;
+                    scheduledSubtrees.add(tree);
+                }
+                return tree;
+            }
+            if (node != null) {
+                //count the new subtree as resident while it is being created
+                busySubtrees ++;
+                peakResidentSubtrees = Math.max(peakResidentSubtrees, getResidentCount());
+            }
+        }
+
+        //the spilled nodes are read without holding the lock, and then wait like any other node
+        if (spillFile != null) {
+            rehydrate(spillFile);
+            return next(incumbent);
+        }
+
+        return createSubtree(node, incumbent);
+    }
+
+    /**
+     *
+     * For a worker which got nothing from next : a new subtree made from the best bound leaf of the handed out
+     * subtree with the most open nodes. Up to half of that subtree's leafs, and at most maxLeafsPerSteal, are taken,
+     * the ones left over wait in the pool for other workers.
+     * Returns null if no subtree has leafs to spare, or there is no room for another subtree.
+     */
+    public ActiveSubtree steal (Solution incumbent) throws Exception {
+
+        NodeAttachment node = null;
+        synchronized (this) {
+            if (getResidentCount() >= maxResidentSubtrees) return null;
+
+            //the victim keeps at least one leaf
+            ActiveSubtree victim = null;
+            int victimLeafs = ONE;
+            for (ActiveSubtree tree : scheduledSubtrees) {
+                int leafs = tree.getOpenNodeCount();
+                if (leafs > victimLeafs) {
+                    victim = tree;
+                    victimLeafs = leafs;
+                }
+            }
+            if (victim == null) return null;
+
+            List<NodeAttachment> stolen = victim.stealLeafNodes(Math.min(maxLeafsPerSteal, victimLeafs / TWO));
+            if (stolen.isEmpty()) return null;
+            steals ++;
+            leafsStolen += stolen.size();
+            node = stolen.get(ZERO);
+            waitingNodes.addAll(stolen.subList(ONE, stolen.size()));
+
+            busySubtrees ++;
+            peakResidentSubtrees = Math.max(peakResidentSubtrees, getResidentCount());
+        }
+
+        return createSubtree(node, incumbent);
+    }
+
+    /**
+     *
+     * Give back a subtree which is not finished, and evict subtrees if the pool is over its budget.
+     * Nodes offered for migration by the subtree must have been added first.
+     */
+    public void putBack (ActiveSubtree tree, double bestKnownGlobalOptimum) throws Exception {
+
+        List<ActiveSubtree> victims = new ArrayList<ActiveSubtree>();
+        synchronized (this) {
+            busySubtrees --;
+            scheduledSubtrees.remove(tree);
+            idleSubtrees.add(tree);
+
+            //victims stay resident until they are spilled, so the excess is counted down here
+            int excessSubtrees = getResidentCount() - maxResidentSubtrees;
+            long openNodes = ZERO;
+            for (ActiveSubtree idle : idleSubtrees) {
+                openNodes += idle.getOpenNodeCount();
+            }
+            while (!idleSubtrees.isEmpty() && (excessSubtrees > ZERO || openNodes > maxResidentOpenNodes)) {
+                ActiveSubtree victim = idleSubtrees.poll();
+                openNodes -= victim.getOpenNodeCount();
+                excessSubtrees --;
+                //still resident until it is spilled
+                busySubtrees ++;
+                victims.add(victim);
+            }
+        }
+
+        for (ActiveSubtree victim : victims) {
+            evict(victim, bestKnownGlobalOptimum);
+        }
+    }
+
+    //a subtree handed out by next is done with
+    public void finish (ActiveSubtree tree) throws Exception {
+        try {
+            tree.end();
+        } finally {
+            synchronized (this) {
+                busySubtrees --;
+                scheduledSubtrees.remove(tree);
+            }
+        }
+    }
+
+    //true if there are no subtrees, and no nodes waiting in memory or on disk
+    public synchronized boolean isEmpty () {
+        return busySubtrees == ZERO && idleSubtrees.isEmpty() && waitingNodes.isEmpty() && spillFiles.isEmpty() &&
+               spillFilesBeingRead == ZERO;
+    }
+
+    public synchronized int getResidentCount () {
+        return busySubtrees + idleSubtrees.size();
+    }
+
+    /**
+     *
+     * End the idle subtrees, and drop the waiting and spilled nodes
+     */
+    public synchronized void close () throws Exception {
+        ActiveSubtree tree;
+        while ((tree = idleSubtrees.poll()) != null) {
+            tree.end();
+        }
+        waitingNodes.clear();
+        for (File file : spillFiles) {
+            file.delete();
+        }
+        spillFiles.clear();
+        nodesOnDisk = ZERO;
+        spillDirectory.delete();
+    }
+
+    public synchronized String getStatistics () {
+        return "resident subtrees " + getResidentCount() + BLANKSPACE + "peak " + peakResidentSubtrees + BLANKSPACE +
+               "waiting nodes " + waitingNodes.size() + BLANKSPACE + "nodes on disk " + nodesOnDisk + NEWLINE +
+               "evictions " + evictions + BLANKSPACE + "refused " + failedEvictions + BLANKSPACE +
+               "nodes spilled " + nodesSpilled + BLANKSPACE + "bytes spilled " + bytesSpilled + BLANKSPACE +
+               "spill millis " + spillNanos/NANOS_PER_MILLI + NEWLINE +
+               "nodes rehydrated " + nodesRehydrated + BLANKSPACE + "rehydrate millis " + rehydrateNanos/NANOS_PER_MILLI + NEWLINE +
+               "steals " + steals + BLANKSPACE + "leafs stolen " + leafsStolen;
+    }
+
+    //a subtree for a node, already counted as busy, which is handed out
+    private ActiveSubtree createSubtree (NodeAttachment node, Solution incumbent) throws Exception {
+        ActiveSubtree tree = null;
+        try {
+            tree = new ActiveSubtree(node);
+            tree.setMipStart(incumbent);
+            return tree;
+        } finally {
+            synchronized (this) {
+                if (tree == null) {
+                    busySubtrees --;
+                } else {
+                    scheduledSubtrees.add(tree);
+                }
+            }
+        }
+    }
+
+    //write the open nodes of a subtree to disk and end it, or keep it if its open nodes cannot be found
+    private void evict (ActiveSubtree tree, double bestKnownGlobalOptimum) throws Exception {
+
+        long start = System.nanoTime();
+        List<NodeAttachment> openNodes = null;
+        File file = null;
+        try {
+            openNodes = tree.drainOpenNodes(bestKnownGlobalOptimum, true);
+            if (openNodes != null) {
+                file = File.createTempFile(SPILL_PREFIX, null, spillDirectory);
+                writeNodes(file, openNodes);
+                tree.end();
+            }
+        } finally {
+            synchronized (this) {
+                busySubtrees --;
+                if (file == null) {
+                    failedEvictions ++;
+                    //the most recently scheduled end, so that other subtrees are tried first next time
+                    idleSubtrees.add(tree);
+                } else {
+                    evictions ++;
+                    spillFiles.add(file);
+                    nodesOnDisk += openNodes.size();
+                    nodesSpilled += openNodes.size();
+                    bytesSpilled += file.length();
+                    spillNanos += System.nanoTime() - start;
+                }
+            }
+        }
+
+        //the IloCplex of an evicted subtree is only worth keeping if a new subtree can reuse it
+        if (file != null) ModelCache.trim(Math.max(ZERO, maxResidentSubtrees - getResidentCount()));
+    }
+
+    //called without the lock, for a file taken from spillFiles ; the file goes back if it cannot be read
+    private void rehydrate (File file) throws IOException {
+        long start = System.nanoTime();
+        List<NodeAttachment> nodes = null;
+        try {
+            nodes = readNodes(file);
+            file.delete();
+        } finally {
+            synchronized (this) {
+                spillFilesBeingRead --;
+                if (nodes == null) {
+                    spillFiles.addFirst(file);
+                } else {
+                    waitingNodes.addAll(nodes);
+                    nodesOnDisk -= nodes.size();
+                    nodesRehydrated += nodes.size();
+                    rehydrateNanos += System.nanoTime() - start;
+                }
+            }
+        }
+    }
+
+    //the full bounds, depth and parent LP bound of every node, the rest of the node attachment is not needed to solve it
+    private static void writeNodes (File file, List<NodeAttachment> nodes) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))));
+        try {
+            out.writeInt(nodes.size());
+            for (NodeAttachment node : nodes) {
+                out.writeInt(node.getDepthFromOriginalRoot());
+                out.writeBoolean(node.isEasy());
+                out.writeDouble(node.getParentLPRelaxValue());
+                writeBounds(out, node.getUpperBounds());
+                writeBounds(out, node.getLowerBounds());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<NodeAttachment> readNodes (File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+        try {
+            int count = in.readInt();
+            List<NodeAttachment> nodes = new ArrayList<NodeAttachment>(count);
+            for (int index = ZERO; index < count; index ++) {
+                int depth = in.readInt();
+                boolean isEasy = in.readBoolean();
+                double parentLPRelaxValue = in.readDouble();
+                SparseBounds upperBounds = readBounds(in, true);
+                SparseBounds lowerBounds = readBounds(in, false);
+                NodeAttachment node = new NodeAttachment(isEasy, upperBounds, lowerBounds, depth, ZERO);
+                node.setParentLPRelaxValue(parentLPRelaxValue);
+                nodes.add(node);
+            }
+            return nodes;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeBounds (DataOutputStream out, SparseBounds bounds) throws IOException {
+        out.writeInt(bounds.size());
+        for (int position = ZERO; position < bounds.size(); position ++) {
+            out.writeInt(bounds.getIndex(position));
+            out.writeDouble(bounds.getValue(position));
+        }
+    }
+
+    private static SparseBounds readBounds (DataInputStream in, boolean isUpperBound) throws IOException {
+        SparseBounds bounds = new SparseBounds(isUpperBound);
+        int size = in.readInt();
+        for (int position = ZERO; position < size; position ++) {
+            bounds.merge(in.readInt(), in.readDouble());
+        }
+        return bounds;
+    }
+
+}
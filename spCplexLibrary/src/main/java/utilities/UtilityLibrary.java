@@ -1,12 +1,13 @@
 package utilities;
 
-import java.util.Map;
-import java.util.Map.Entry;
+import dataTypes.CompressedBasis;
 import dataTypes.NodeAttachment;
 import dataTypes.Solution;
+import dataTypes.SparseBounds;
+import dataTypes.VariableDictionary;
 import ilog.concert.IloException;
-import ilog.concert.IloLPMatrix;
 import ilog.concert.IloNumVar;
+import ilog.concert.IloRange;
 import ilog.cplex.IloCplex; 
 import ilog.cplex.IloCplex.BranchDirection;
 import static constantsAndParams.Constants.*;
@@ -21,12 +22,10 @@ public class UtilityLibrary {
      */
     public static void addVariablevaluesToSolution    (IloCplex cplex, Solution soln) throws  IloException {
         
-        IloLPMatrix lpMatrix = (IloLPMatrix)cplex.LPMatrixIterator().next();
-
         //WARNING: we assume that every variable appears in at least 1 constraint or variable bound
         //Otherwise, this method of getting all the variables from the matrix may not yield all the variables
         
-        IloNumVar[] variables = lpMatrix.getNumVars();
+        IloNumVar[] variables = ModelCache.getVariables(cplex);
         double[] variableValues = cplex.getValues(variables);                 
 
         for ( int index = ZERO; index < variableValues.length; index ++){
@@ -40,55 +39,34 @@ public class UtilityLibrary {
     
     
     public static NodeAttachment createChildNode (NodeAttachment parentNode, BranchDirection[ ] directionArray, 
-            double[ ] boundArray, IloNumVar[] varArray , boolean easy) {
+            double[ ] boundArray, IloNumVar[] varArray , boolean easy, VariableDictionary dictionary) {
 
-        //depth of child is 1 more than parent
-        NodeAttachment child =new NodeAttachment (   easy, parentNode.getUpperBounds(), 
-                parentNode.getLowerBounds() ,  ONE+parentNode.getDepthFromOriginalRoot(),
-                ONE+parentNode.getDepthFromSubtreeRoot()) ;            
+        //depth of child is 1 more than parent, and the child shares the parent's bounds
+        NodeAttachment child = parentNode.createChild(easy);
                 
-        //now apply the new bounds to the existing bounds
+        //now record the new bounds in the child
         for (int index = 0 ; index < varArray.length; index ++) {                           
-            mergeBound(child, varArray[index].getName(), boundArray[index] , 
+            mergeBound(child, dictionary.indexOf(varArray[index].getName()), boundArray[index] , 
                     directionArray[index].equals(BranchDirection.Down));
         }
 
         return child;
     }
     
-    public static boolean mergeBound(NodeAttachment node, String varName, double value, boolean isUpperBound) {
-        boolean isMerged = false;
-
-        if (isUpperBound){
-            Map< String, Double >  upperBounds = node.getUpperBounds() ;
-            if (upperBounds.containsKey(varName)) {
-                if (value < upperBounds.get(varName)){
-                    //update the more restrictive upper bound
-                    upperBounds.put(varName, value);
-                    isMerged = true;
-                }
-            }else {
-                //add the bound
-                upperBounds.put(varName, value);
-                isMerged = true;
-            }
-        } else {
-            //it is a lower bound
-            Map< String, Double >  lowerBounds = node.getLowerBounds() ;
-            if (lowerBounds.containsKey(varName)) {
-                if (value > lowerBounds.get(varName)){
-                    //update the more restrictive lower bound
-                    lowerBounds.put(varName, value);
-                    isMerged = true;
-                }               
-            }else {
-                //add the bound
-                lowerBounds.put(varName, value);
-                isMerged = true;
-            }
+    public static boolean mergeBound(NodeAttachment node, int varIndex, double value, boolean isUpperBound) {
+        return node.mergeBound(varIndex, value, isUpperBound);
+    }
+    
+    /**
+     * 
+     * The current bound of every variable, in the same order as variables
+     */
+    public static double[] getVariableBounds(IloNumVar[] variables, boolean isUpperBound) throws IloException {
+        double[] bounds = new double[variables.length];
+        for (int index = ZERO ; index < variables.length; index ++) {
+            bounds[index] = isUpperBound ? variables[index].getUB() : variables[index].getLB();
         }
-
-        return isMerged;
+        return bounds;
     }
     
     /**
@@ -97,33 +75,53 @@ public class UtilityLibrary {
      */
     public static void  merge ( IloCplex cplex, NodeAttachment attachment   ) throws IloException {
 
-        IloLPMatrix lpMatrix = (IloLPMatrix) cplex .LPMatrixIterator().next();
-
         //WARNING : we assume that every variable appears in at least 1 constraint or variable bound
-        IloNumVar[] variables = lpMatrix.getNumVars();
-
-        for (int index = ZERO ; index <variables.length; index ++ ){
+        //the position of a variable in the matrix is its index in the VariableDictionary
+        //the variables of a cached model are not read again from CPLEX
+        IloNumVar[] variables = ModelCache.getVariables(cplex);
 
-            IloNumVar thisVar = variables[index];
-            updateVariableBounds(thisVar,attachment.getLowerBounds(), false );
-            updateVariableBounds(thisVar,attachment.getUpperBounds(), true );
-
-        }       
+        //only visit the variables which actually have a new bound
+        updateVariableBounds(variables,attachment.getLowerBounds() );
+        updateVariableBounds(variables,attachment.getUpperBounds() );
+        
+        //warm start the LP of the node, once its bounds are in place
+        if (attachment.getBasis() != null) installBasis(cplex, attachment.getBasis());
+    }
+    
+    /**
+     * 
+     * Give CPLEX the basis to start the next LP from. A basis that was not taken from this model is ignored, 
+     * and so is a basis CPLEX rejects. The LP is then solved cold.
+     */
+    public static void installBasis (IloCplex cplex, CompressedBasis basis) {
+        
+        try {
+            IloNumVar[] variables = ModelCache.getVariables(cplex);
+            IloRange[] ranges = ModelCache.getRanges(cplex);
+            if (basis.getColumnCount() != variables.length || basis.getRowCount() != ranges.length) {
+                System.out.println("Basis of " + basis.getColumnCount() + " columns and " + basis.getRowCount() + 
+                        " rows does not fit the model, it is ignored");
+                return;
+            }
+            
+            cplex.setBasisStatuses(variables, basis.getColumnStatuses(), ranges, basis.getRowStatuses());
+        } catch (IloException ex) {
+            System.out.println("Basis could not be installed, it is ignored " + ex);
+        }
     }
     
     /**
      * 
      *  Update variable bounds as specified    
      */
-    public static   void updateVariableBounds(IloNumVar var, Map< String,Double > newBounds, boolean isUpperBound   ) 
+    public static   void updateVariableBounds(IloNumVar[] variables, SparseBounds newBounds   ) 
             throws IloException{
 
-        String varName = var.getName();
-        boolean isPresentInNewBounds = newBounds.containsKey(varName);
-
-        if (isPresentInNewBounds) {
-            double newBound =   newBounds.get(varName)  ;
-            if (isUpperBound){
+        for (int position = ZERO ; position < newBounds.size(); position ++ ){
+            
+            IloNumVar var = variables[newBounds.getIndex(position)];
+            double newBound =   newBounds.getValue(position)  ;
+            if (newBounds.isUpperBound()){
                 if ( var.getUB() > newBound ){
                     //update the more restrictive upper bound
                     var.setUB( newBound );